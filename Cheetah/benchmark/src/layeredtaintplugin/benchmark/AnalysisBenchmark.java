@@ -0,0 +1,37 @@
+package layeredtaintplugin.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import layeredtaintplugin.internal.LayeredAnalysis;
+
+/**
+ * Full layered runs on the start point, cold (fresh scene) and warm
+ * (classes loaded by the previous runs).
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AnalysisBenchmark {
+
+	@Benchmark
+	public LayeredAnalysis cold(AnalysisState state) throws IOException {
+		state.setUp();
+		return state.analyze();
+	}
+
+	@Benchmark
+	public LayeredAnalysis warm(AnalysisState state) {
+		return state.analyze();
+	}
+}
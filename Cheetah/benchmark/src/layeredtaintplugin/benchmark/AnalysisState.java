@@ -0,0 +1,68 @@
+package layeredtaintplugin.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import layeredtaintplugin.internal.HeadlessAnalysis;
+import layeredtaintplugin.internal.LayeredAnalysis;
+import layeredtaintplugin.reporter.HeadlessReporter;
+import soot.SootMethod;
+
+/**
+ * Start point the benchmarks analyze, given by the arguments of
+ * HeadlessAnalysis (passed with -p input=... -p sootCP=... -p
+ * projectClasses=... -p startMethod=...).
+ */
+@State(Scope.Benchmark)
+public class AnalysisState {
+
+	@Param("")
+	public String input;
+	@Param("")
+	public String sootCP;
+	@Param("")
+	public String projectClasses;
+	@Param("")
+	public String startMethod;
+
+	private HeadlessAnalysis analysis;
+	private SootMethod startPoint;
+
+	// State of the last run
+	private LayeredAnalysis layeredAnalysis;
+	private HeadlessReporter reporter;
+
+	// Fresh Soot scene with the start point loaded
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if (input.isEmpty() || sootCP.isEmpty() || projectClasses.isEmpty() || startMethod.isEmpty())
+			throw new IllegalArgumentException("Usage: -p input=<apk|classDir> -p sootCP=<sootCP>"
+					+ " -p projectClasses=<projectClasses> -p startMethod=<startMethod>");
+		// The output file is only written by HeadlessAnalysis.run
+		analysis = HeadlessAnalysis
+				.fromArgs(new String[] { input, sootCP, projectClasses, startMethod, "benchmark.txt" });
+		startPoint = analysis.setUp();
+		if (startPoint == null)
+			throw new IllegalStateException("Starting point not found: " + startMethod);
+	}
+
+	public LayeredAnalysis analyze() {
+		reporter = new HeadlessReporter(startPoint);
+		reporter.setRecordReports(true);
+		layeredAnalysis = analysis.analyze(reporter);
+		return layeredAnalysis;
+	}
+
+	public LayeredAnalysis getLayeredAnalysis() {
+		return layeredAnalysis;
+	}
+
+	public HeadlessReporter getReporter() {
+		return reporter;
+	}
+}
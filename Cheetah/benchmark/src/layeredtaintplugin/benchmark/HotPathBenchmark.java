@@ -0,0 +1,151 @@
+package layeredtaintplugin.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Table.Cell;
+
+import heros.EdgeFunction;
+import heros.solver.IFDSSolver;
+import heros.solver.Pair;
+import layeredtaintplugin.icfg.JitIcfg;
+import layeredtaintplugin.icfg.LocalMayAliasAnalysisWithFields;
+import layeredtaintplugin.internal.FlowAbstraction;
+import layeredtaintplugin.internal.LayeredAnalysis;
+import layeredtaintplugin.reporter.PathFinder;
+import soot.Body;
+import soot.Local;
+import soot.Unit;
+import soot.ValueBox;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.UnitGraph;
+
+/**
+ * Operations the analysis spends its time in, each measured over all the
+ * facts, bodies or reports of one warm run of the start point. Call
+ * targets and alias analyses are computed by a private icfg over the same
+ * bodies, the caches of the analysis are left untouched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HotPathBenchmark {
+
+	private List<FlowAbstraction> facts;
+	private List<Body> bodies;
+	private List<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>> reports;
+
+	private JitIcfg icfg;
+	private PathFinder pathFinder;
+
+	// Facts, bodies and reports reached by a run
+	@Setup(Level.Trial)
+	public void collect(AnalysisState state) {
+		LayeredAnalysis layeredAnalysis = state.analyze();
+		bodies = new ArrayList<Body>(layeredAnalysis.getIcfg().getBodies());
+		facts = new ArrayList<FlowAbstraction>();
+		for (Body body : bodies)
+			for (Unit u : body.getUnits())
+				for (Cell<FlowAbstraction, FlowAbstraction, EdgeFunction<IFDSSolver.BinaryDomain>> cell : layeredAnalysis
+						.getJumpFunctions().lookupByTarget(u))
+					if (!cell.getColumnKey().isZeroAbstraction())
+						facts.add(cell.getColumnKey());
+		reports = state.getReporter().getReports();
+
+		icfg = new JitIcfg();
+		for (Body body : bodies)
+			icfg.initForMethod(body.getMethod());
+		pathFinder = new PathFinder(layeredAnalysis.getIcfg(), layeredAnalysis.getJumpFunctions());
+	}
+
+	/***** Facts *****/
+
+	@Benchmark
+	public void deriveWithNewStmt(Blackhole bh) {
+		for (FlowAbstraction fa : facts)
+			bh.consume(fa.deriveWithNewStmt(fa.getUnit(), fa.getMethod()));
+	}
+
+	@Benchmark
+	public void factHashCode(Blackhole bh) {
+		for (FlowAbstraction fa : facts)
+			bh.consume(fa.hashCode());
+	}
+
+	@Benchmark
+	public void factEquals(Blackhole bh) {
+		for (int i = 1; i < facts.size(); i++)
+			bh.consume(facts.get(i).equals(facts.get(i - 1)));
+	}
+
+	/***** Icfg *****/
+
+	@Benchmark
+	public void aliasConstruct(Blackhole bh) {
+		for (Body body : bodies)
+			bh.consume(new LocalMayAliasAnalysisWithFields((UnitGraph) icfg.getOrCreateUnitGraph(body)));
+	}
+
+	@Benchmark
+	public void aliasQuery(Blackhole bh) {
+		for (Body body : bodies)
+			for (Unit u : body.getUnits())
+				for (ValueBox box : u.getUseAndDefBoxes())
+					if (box.getValue() instanceof Local)
+						bh.consume(icfg.mayAlias(box.getValue(), u));
+	}
+
+	@Benchmark
+	public void calleeResolution(Blackhole bh) {
+		for (Body body : bodies) {
+			for (Unit u : body.getUnits()) {
+				if (((Stmt) u).containsInvokeExpr()) {
+					icfg.unitToCallees.invalidate(u);
+					bh.consume(icfg.unitToCallees.getUnchecked(u));
+				}
+			}
+		}
+	}
+
+	/***** Reports *****/
+
+	// Paths of every report, as PathFinder.findPath without its cache per
+	// sink
+	@Benchmark
+	public void extractPaths(Blackhole bh) {
+		for (Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>> report : reports) {
+			FlowAbstraction sink = report.getO1();
+			List<FlowAbstraction> stub = report.getO2().isEmpty() ? new ArrayList<FlowAbstraction>() : null;
+			for (Map.Entry<FlowAbstraction, Set<List<FlowAbstraction>>> leak : report.getO2().entrySet()) {
+				if (!leak.getValue().isEmpty()) {
+					sink = leak.getKey();
+					stub = leak.getValue().iterator().next();
+					break;
+				}
+			}
+			// No path to the sinks of the summary
+			if (stub == null)
+				continue;
+			bh.consume(pathFinder.extractPaths(report.getO1(), new ArrayList<FlowAbstraction>(stub), sink));
+		}
+	}
+}
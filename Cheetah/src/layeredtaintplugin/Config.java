@@ -32,6 +32,65 @@ public class Config {
 
 	public static final int apLength = 5;
 
+	// Shorter access paths in outer layers, cut further once a task has added
+	// the threshold of jump function edges (doubled at each cut)
+	public static final boolean adaptiveApLength = false;
+	public static final long apWideningThreshold = 200000;
+
+	// Run independent tasks of the same layer on a worker pool
+	public static final boolean parallelTasks = false;
+	public static final int taskThreads = Runtime.getRuntime().availableProcessors();
+
+	// A preempted run stops on its own within a few propagations, it is only
+	// reset forcibly if it is still running after the timeout (ms)
+	public static final long cancellationPollInterval = 100;
+	public static final long cancellationTimeout = 5000;
+
+	// Keep the Soot scene of a project between runs, re-resolving only the
+	// classes whose class files changed
+	public static final boolean warmScene = false;
+
+	// Keep the predecessors and neighbours of facts in a memory-mapped log
+	// instead of the heap
+	public static final boolean provenanceLog = false;
+
+	// Store jump functions over numbered facts in primitive tables
+	public static final boolean compactJumpFunctions = false;
+	// Write the jump functions of least recently used methods to disk between
+	// tasks once they exceed the budget (MB), needs provenanceLog
+	public static final boolean spillJumpFunctions = false;
+	public static final long jumpFunctionBudget = 1024;
+
+	// Answer alias queries from the assignment component of the queried
+	// value instead of a whole-body analysis
+	public static final boolean demandDrivenAliasing = false;
+
+	// Per-body results kept by the ICFG, in units of the cached bodies, and
+	// call targets, in call sites
+	public static final long bodyCacheUnits = 2000000;
+	public static final long calleeCacheSize = 500000;
+
+	// Load the classes of the next layer, and build the alias analyses of
+	// their bodies, on a background thread while a task is solved
+	public static final boolean prefetchClasses = false;
+
+	// Resolve calls on a subtype index patched with newly loaded classes,
+	// instead of rebuilding Soot's FastHierarchy after each class loading
+	public static final boolean incrementalHierarchy = false;
+
+	// Only give project layers the call targets of instantiated classes (RTA),
+	// and of the types stored in the receiver's field (XTA)
+	public static final boolean rapidTypeResolution = false;
+	public static final boolean fieldTypeResolution = false;
+
+	// Keep IFDS summaries of unchanged methods from one run to the next
+	// (needs warmScene, a cold run resets Soot)
+	public static final boolean incrementalAnalysis = false;
+
+	// Keep summaries of library methods on disk, in the plug-in state location
+	public static final boolean librarySummaries = false;
+	public static final String librarySummariesFile = "library-summaries.bin";
+
 	public static final String dummyMainMethodName = "dummyMainMethod";
 	public static final String dummyMainClassName = "dummyMainClass";
 
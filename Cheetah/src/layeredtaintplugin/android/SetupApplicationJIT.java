@@ -34,6 +34,7 @@ public class SetupApplicationJIT {
 
 	private final String sootCP;
 	private final String apkFileLocation;
+	private final String processDir;
 
 	private Set<String> entrypoints = null;
 	private List<ARSCFileParser.ResPackage> resourcePackages = null;
@@ -48,25 +49,47 @@ public class SetupApplicationJIT {
 
 	public SetupApplicationJIT(String apkFileLocation, String sootCP,
 			ISourceSinkDefinitionProvider sourceSinkProvider) {
-		this.apkFileLocation = apkFileLocation;
-		this.sootCP = sootCP;
-		try {
-			// Load Android callbacks
-			this.androidCallbacks = Activator.getDefault().getAndroidCallbacks();
+		this(apkFileLocation, sootCP, sourceSinkProvider, Activator.getDefault().getAndroidCallbacks());
+	}
 
-			// Process manifest
-			ProcessManifest processMan = new ProcessManifest(apkFileLocation);
-			this.appPackageName = processMan.getPackageName();
-			this.entrypoints = processMan.getEntryPointClasses();
+	public SetupApplicationJIT(String apkFileLocation, String sootCP, ISourceSinkDefinitionProvider sourceSinkProvider,
+			Set<String> androidCallbacks) {
+		this(apkFileLocation, apkFileLocation, sootCP, sourceSinkProvider, androidCallbacks);
+	}
 
-			// Parse the resource file
-			ARSCFileParser resParser = new ARSCFileParser();
-			resParser.parse(apkFileLocation);
-			this.resourcePackages = resParser.getPackages();
+	// Application without APK: classes are read from the class directory, and
+	// there is no manifest, resource or layout to parse
+	public static SetupApplicationJIT forClassDirectory(String classDirectory, String sootCP,
+			ISourceSinkDefinitionProvider sourceSinkProvider, Set<String> androidCallbacks) {
+		return new SetupApplicationJIT(null, classDirectory, sootCP, sourceSinkProvider, androidCallbacks);
+	}
 
-			// LayoutFileParser
-			LayoutFileParser lfp = new LayoutFileParser(this.appPackageName, resParser);
-			lfp.parseLayoutFile(apkFileLocation, entrypoints);
+	private SetupApplicationJIT(String apkFileLocation, String processDir, String sootCP,
+			ISourceSinkDefinitionProvider sourceSinkProvider, Set<String> androidCallbacks) {
+		this.apkFileLocation = apkFileLocation;
+		this.processDir = processDir;
+		this.sootCP = sootCP;
+		this.androidCallbacks = androidCallbacks;
+		try {
+			LayoutFileParser lfp = null;
+			if (apkFileLocation == null) {
+				this.entrypoints = new HashSet<String>();
+				this.resourcePackages = new ArrayList<ARSCFileParser.ResPackage>();
+			} else {
+				// Process manifest
+				ProcessManifest processMan = new ProcessManifest(apkFileLocation);
+				this.appPackageName = processMan.getPackageName();
+				this.entrypoints = processMan.getEntryPointClasses();
+
+				// Parse the resource file
+				ARSCFileParser resParser = new ARSCFileParser();
+				resParser.parse(apkFileLocation);
+				this.resourcePackages = resParser.getPackages();
+
+				// LayoutFileParser
+				lfp = new LayoutFileParser(this.appPackageName, resParser);
+				lfp.parseLayoutFile(apkFileLocation, entrypoints);
+			}
 
 			// Create the SourceSinkManager
 			Set<SootMethodAndClass> callbacks = new HashSet<>();
@@ -157,9 +180,12 @@ public class SetupApplicationJIT {
 		Options.v().set_allow_phantom_refs(true);
 		Options.v().set_output_format(Options.output_format_none);
 		Options.v().set_whole_program(true);
-		Options.v().set_process_dir(Collections.singletonList(apkFileLocation));
+		Options.v().set_process_dir(Collections.singletonList(processDir));
 		Options.v().set_soot_classpath(sootCP);
-		Options.v().set_src_prec(Options.src_prec_apk); // src_prec_apk_class_jimple
+		if (apkFileLocation == null)
+			Options.v().set_src_prec(Options.src_prec_class);
+		else
+			Options.v().set_src_prec(Options.src_prec_apk); // src_prec_apk_class_jimple
 		Options.v().setPhaseOption("jb", "use-original-names:true");
 		Options.v().set_keep_line_number(true);
 		Options.v().set_on_the_fly(true);
@@ -0,0 +1,103 @@
+package layeredtaintplugin.icfg;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Unit;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.ForwardFlowAnalysis;
+
+/**
+ * Forward analysis over AliasPartitions which only keeps the facts it needs
+ * to answer queries. Once the fixpoint is reached, the fact before the first
+ * unit of each straight-line segment of the graph is kept and all others are
+ * dropped. The fact after a unit is replayed from the head of its segment,
+ * in time linear in the units between them.
+ */
+public abstract class AliasFlowAnalysis extends ForwardFlowAnalysis<Unit, AliasPartition> {
+
+	// Fact before each segment head, read by the solver threads
+	private final Map<Unit, AliasPartition> segmentHeads = new HashMap<Unit, AliasPartition>();
+
+	public AliasFlowAnalysis(UnitGraph graph) {
+		super(graph);
+	}
+
+	@Override
+	protected void doAnalysis() {
+		super.doAnalysis();
+		for (Unit head : segmentHeads())
+			segmentHeads.put(head, getFlowBefore(head));
+		unitToBeforeFlow.clear();
+		unitToAfterFlow.clear();
+	}
+
+	// Fact after the unit, from the fact before the head of its segment
+	protected AliasPartition flowAfter(Unit u) {
+		Deque<Unit> segment = new ArrayDeque<Unit>();
+		Unit head = u;
+		segment.push(head);
+		while (!segmentHeads.containsKey(head)) {
+			head = graph.getPredsOf(head).get(0);
+			segment.push(head);
+		}
+		AliasPartition in = new AliasPartition();
+		in.copyFrom(segmentHeads.get(head));
+		for (Unit unit : segment) {
+			AliasPartition out = new AliasPartition();
+			flowThrough(in, unit, out);
+			in = out;
+		}
+		return in;
+	}
+
+	// Units without a single predecessor whose only successor they are, and
+	// one unit of each cycle not entered from elsewhere
+	private Set<Unit> segmentHeads() {
+		Set<Unit> heads = new HashSet<Unit>();
+		for (Unit u : graph)
+			if (graph.getPredsOf(u).size() != 1 || graph.getSuccsOf(graph.getPredsOf(u).get(0)).size() != 1)
+				heads.add(u);
+		Set<Unit> reached = new HashSet<Unit>();
+		for (Unit head : new HashSet<Unit>(heads))
+			reachSegment(head, heads, reached);
+		for (Unit u : graph) {
+			if (reached.contains(u))
+				continue;
+			heads.add(u);
+			reachSegment(u, heads, reached);
+		}
+		return heads;
+	}
+
+	private void reachSegment(Unit head, Set<Unit> heads, Set<Unit> reached) {
+		Unit u = head;
+		do {
+			reached.add(u);
+			if (graph.getSuccsOf(u).size() != 1)
+				return;
+			u = graph.getSuccsOf(u).get(0);
+		} while (!heads.contains(u) && !reached.contains(u));
+	}
+
+	/***** Analysis *****/
+
+	@Override
+	protected void copy(AliasPartition source, AliasPartition target) {
+		target.copyFrom(source);
+	}
+
+	@Override
+	protected void merge(AliasPartition source1, AliasPartition source2, AliasPartition target) {
+		target.join(source1, source2);
+	}
+
+	@Override
+	protected AliasPartition newInitialFlow() {
+		return new AliasPartition();
+	}
+}
@@ -0,0 +1,212 @@
+package layeredtaintplugin.icfg;
+
+/**
+ * Flow fact of the may-alias analyses: a partition of the values of a body,
+ * numbered from 0. Each value stores the smallest member of its class, and
+ * the next member in a ring over the class, so that a class is listed and
+ * changed in time linear in its size. The entries are kept in fixed-size
+ * chunks, copied on write: copying a fact only copies the reference to the
+ * chunks, and a definition copies the spine and the chunks it touches
+ * rather than the whole partition. A fact without chunks is the bottom
+ * value of the analysis.
+ */
+public class AliasPartition {
+
+	// Values per chunk, each value takes a representative and a next entry
+	private static final int SHIFT = 6;
+	private static final int CHUNK = 1 << SHIFT;
+	private static final int MASK = CHUNK - 1;
+
+	private int[][] chunks = null;
+	// Chunks this fact may change in place, null if it owns none of them,
+	// nor the spine
+	private boolean[] owned = null;
+
+	// Each value alone
+	public static AliasPartition discrete(int size) {
+		AliasPartition res = new AliasPartition();
+		res.chunks = new int[(size + MASK) >> SHIFT][];
+		res.owned = new boolean[res.chunks.length];
+		for (int c = 0; c < res.chunks.length; c++) {
+			int[] chunk = new int[2 * Math.min(CHUNK, size - (c << SHIFT))];
+			for (int j = 0; j < chunk.length / 2; j++) {
+				chunk[2 * j] = (c << SHIFT) + j;
+				chunk[2 * j + 1] = (c << SHIFT) + j;
+			}
+			res.chunks[c] = chunk;
+			res.owned[c] = true;
+		}
+		return res;
+	}
+
+	// Both facts share the chunks from now on, neither changes them in place
+	public void copyFrom(AliasPartition other) {
+		if (other.owned != null)
+			other.owned = null;
+		this.chunks = other.chunks;
+		this.owned = null;
+	}
+
+	/***** Queries *****/
+
+	public boolean sameClass(int x, int y) {
+		return chunks != null && rep(x) == rep(y);
+	}
+
+	// Members of the class of x, x included
+	public int[] classOf(int x) {
+		if (chunks == null)
+			return new int[0];
+		int count = 0;
+		int i = x;
+		do {
+			count++;
+			i = next(i);
+		} while (i != x);
+		int[] res = new int[count];
+		count = 0;
+		do {
+			res[count++] = i;
+			i = next(i);
+		} while (i != x);
+		return res;
+	}
+
+	/***** Transfer *****/
+
+	// Take x out of its class
+	public void isolate(int x) {
+		if (chunks == null)
+			return;
+		int nx = next(x);
+		if (nx == x)
+			return;
+		int r = rep(x);
+		int prev = x;
+		int newRep = Integer.MAX_VALUE;
+		for (int i = nx; i != x; i = next(i)) {
+			if (next(i) == x)
+				prev = i;
+			newRep = Math.min(newRep, i);
+		}
+		setNext(prev, nx);
+		setNext(x, x);
+		setRep(x, x);
+		if (r != x)
+			return;
+		int i = nx;
+		do {
+			setRep(i, newRep);
+			i = next(i);
+		} while (i != nx);
+	}
+
+	// Merge the classes of x and y
+	public void union(int x, int y) {
+		if (chunks == null)
+			return;
+		int rx = rep(x);
+		int ry = rep(y);
+		if (rx == ry)
+			return;
+		int keep = Math.min(rx, ry);
+		int drop = Math.max(rx, ry);
+		int i = drop;
+		do {
+			setRep(i, keep);
+			i = next(i);
+		} while (i != drop);
+		// Splice the two rings
+		int nextKeep = next(keep);
+		setNext(keep, next(drop));
+		setNext(drop, nextKeep);
+	}
+
+	// Finest partition coarser than both: the classes of b are merged into
+	// a, in the chunks where they differ
+	public void join(AliasPartition a, AliasPartition b) {
+		int[][] aChunks = a.chunks;
+		int[][] bChunks = b.chunks;
+		if (aChunks == null || bChunks == null || aChunks == bChunks) {
+			copyFrom(aChunks == null ? b : a);
+			return;
+		}
+		copyFrom(a);
+		for (int c = 0; c < bChunks.length; c++) {
+			int[] bChunk = bChunks[c];
+			if (aChunks[c] == bChunk)
+				continue;
+			for (int j = 0; j < bChunk.length / 2; j++) {
+				int i = (c << SHIFT) + j;
+				if (bChunk[2 * j] != i)
+					union(i, bChunk[2 * j]);
+			}
+		}
+	}
+
+	/***** Chunks *****/
+
+	private int rep(int x) {
+		return chunks[x >> SHIFT][2 * (x & MASK)];
+	}
+
+	private int next(int x) {
+		return chunks[x >> SHIFT][2 * (x & MASK) + 1];
+	}
+
+	private void setRep(int x, int value) {
+		writable(x >> SHIFT)[2 * (x & MASK)] = value;
+	}
+
+	private void setNext(int x, int value) {
+		writable(x >> SHIFT)[2 * (x & MASK) + 1] = value;
+	}
+
+	private int[] writable(int c) {
+		if (owned == null) {
+			chunks = chunks.clone();
+			owned = new boolean[chunks.length];
+		}
+		if (!owned[c]) {
+			chunks[c] = chunks[c].clone();
+			owned[c] = true;
+		}
+		return chunks[c];
+	}
+
+	/***** Utils *****/
+
+	// Over the representatives only, the order of the rings is not part of
+	// the partition
+	@Override
+	public int hashCode() {
+		if (chunks == null)
+			return 0;
+		int res = 1;
+		for (int[] chunk : chunks)
+			for (int j = 0; j < chunk.length; j += 2)
+				res = 31 * res + chunk[j];
+		return res;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof AliasPartition))
+			return false;
+		AliasPartition other = (AliasPartition) obj;
+		if (chunks == other.chunks)
+			return true;
+		if (chunks == null || other.chunks == null || chunks.length != other.chunks.length)
+			return false;
+		for (int c = 0; c < chunks.length; c++) {
+			if (chunks[c] == other.chunks[c])
+				continue;
+			for (int j = 0; j < chunks[c].length; j += 2)
+				if (chunks[c][j] != other.chunks[c][j])
+					return false;
+		}
+		return true;
+	}
+}
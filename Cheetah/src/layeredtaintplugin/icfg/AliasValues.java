@@ -0,0 +1,101 @@
+package layeredtaintplugin.icfg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.Body;
+import soot.Local;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.ConcreteRef;
+import soot.jimple.InstanceFieldRef;
+
+/**
+ * The values tracked by the may-alias analyses of a body: its locals and
+ * concrete references, numbered from 0 and compared with equivTo, and the
+ * instance fields of each local.
+ */
+public class AliasValues {
+
+	private final Map<EquivValue, Integer> numbers = new HashMap<EquivValue, Integer>();
+	private final List<Value> values = new ArrayList<Value>();
+	private final Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+
+	public AliasValues(Body body) {
+		for (ValueBox vb : body.getUseAndDefBoxes()) {
+			Value v = vb.getValue();
+			if (!isTracked(v))
+				continue;
+			EquivValue ev = new EquivValue(v);
+			if (numbers.containsKey(ev))
+				continue;
+			numbers.put(ev, values.size());
+			values.add(v);
+		}
+		for (int i = 0; i < values.size(); i++) {
+			if (!(values.get(i) instanceof InstanceFieldRef))
+				continue;
+			Integer base = numbers.get(new EquivValue(((InstanceFieldRef) values.get(i)).getBase()));
+			if (base == null)
+				continue;
+			List<Integer> fields = children.get(base);
+			if (fields == null) {
+				fields = new ArrayList<Integer>();
+				children.put(base, fields);
+			}
+			fields.add(i);
+		}
+	}
+
+	public static boolean isTracked(Value v) {
+		return v instanceof Local || v instanceof ConcreteRef;
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	// -1 for values which are not tracked
+	public int numberOf(Value v) {
+		Integer res = numbers.get(new EquivValue(v));
+		return res == null ? -1 : res;
+	}
+
+	public Value valueOf(int number) {
+		return values.get(number);
+	}
+
+	// Instance fields of a local
+	public List<Integer> childrenOf(int local) {
+		List<Integer> res = children.get(local);
+		return res == null ? Collections.<Integer> emptyList() : res;
+	}
+
+	static class EquivValue {
+		public Value value;
+
+		public EquivValue(Value value) {
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode() {
+			return value.equivHashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof EquivValue)
+				return value.equivTo(((EquivValue) o).value);
+			return false;
+		}
+
+		@Override
+		public String toString() {
+			return value.toString() + "(" + value.hashCode() + ")";
+		}
+	}
+}
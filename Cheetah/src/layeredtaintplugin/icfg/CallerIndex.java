@@ -0,0 +1,156 @@
+package layeredtaintplugin.icfg;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Call edges resolved by the icfg, as the callers of each method and the
+ * callees of each call site. Both sides are arrays which are never modified
+ * once published: an update copies the array and swaps it in with a
+ * compare-and-set, so readers need no lock and always see a consistent
+ * set.
+ */
+public class CallerIndex {
+
+	private final ConcurrentMap<SootMethod, Unit[]> callers = new ConcurrentHashMap<SootMethod, Unit[]>();
+	private final ConcurrentMap<Unit, SootMethod[]> callees = new ConcurrentHashMap<Unit, SootMethod[]>();
+
+	/***** Queries *****/
+
+	public Set<Unit> callersOf(SootMethod m) {
+		Unit[] res = callers.get(m);
+		return res == null ? Collections.<Unit> emptySet() : new ArraySet<Unit>(res);
+	}
+
+	public Set<SootMethod> calleesOf(Unit callSite) {
+		SootMethod[] res = callees.get(callSite);
+		return res == null ? Collections.<SootMethod> emptySet() : new ArraySet<SootMethod>(res);
+	}
+
+	/***** Updates *****/
+
+	public void add(Unit callSite, SootMethod target) {
+		// Call sites have few targets, most calls are known already
+		SootMethod[] known = callees.get(callSite);
+		if (known != null && indexOf(known, target) >= 0)
+			return;
+		// Callers first: once the call site lists the target, the edge is
+		// visible from both sides
+		add(callers, target, callSite, new Unit[] { callSite });
+		add(callees, callSite, target, new SootMethod[] { target });
+	}
+
+	// Edges from the call site
+	public void removeCallSite(Unit callSite) {
+		SootMethod[] targets = callees.remove(callSite);
+		if (targets != null)
+			for (SootMethod target : targets)
+				remove(callers, target, callSite);
+	}
+
+	// Edges to the method
+	public void removeCallersOf(SootMethod m) {
+		Unit[] callSites = callers.remove(m);
+		if (callSites != null)
+			for (Unit callSite : callSites)
+				remove(callees, callSite, m);
+	}
+
+	private static <K, V> void add(ConcurrentMap<K, V[]> map, K key, V value, V[] single) {
+		while (true) {
+			V[] current = map.get(key);
+			if (current == null) {
+				if (map.putIfAbsent(key, single) == null)
+					return;
+			} else {
+				if (indexOf(current, value) >= 0)
+					return;
+				V[] next = Arrays.copyOf(current, current.length + 1);
+				next[current.length] = value;
+				if (map.replace(key, current, next))
+					return;
+			}
+		}
+	}
+
+	private static <K, V> void remove(ConcurrentMap<K, V[]> map, K key, V value) {
+		while (true) {
+			V[] current = map.get(key);
+			if (current == null)
+				return;
+			int i = indexOf(current, value);
+			if (i < 0)
+				return;
+			if (current.length == 1) {
+				if (map.remove(key, current))
+					return;
+				continue;
+			}
+			V[] next = Arrays.copyOf(current, current.length - 1);
+			if (i < next.length)
+				next[i] = current[current.length - 1];
+			if (map.replace(key, current, next))
+				return;
+		}
+	}
+
+	private static int indexOf(Object[] array, Object value) {
+		for (int i = 0; i < array.length; i++)
+			if (array[i] == value)
+				return i;
+		return -1;
+	}
+
+	// Read-only view of a published array
+	private static class ArraySet<E> extends AbstractSet<E> {
+
+		private final E[] elements;
+
+		private ArraySet(E[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return indexOf(elements, o) >= 0;
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return new Iterator<E>() {
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < elements.length;
+				}
+
+				@Override
+				public E next() {
+					if (next >= elements.length)
+						throw new NoSuchElementException();
+					return elements[next++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+	}
+}
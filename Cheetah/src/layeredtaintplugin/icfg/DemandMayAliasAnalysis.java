@@ -0,0 +1,201 @@
+package layeredtaintplugin.icfg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Local;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.Constant;
+import soot.jimple.DefinitionStmt;
+import soot.toolkits.graph.UnitGraph;
+
+/**
+ * Same results as LocalMayAliasAnalysisWithFields, computed on demand
+ * (Config.demandDrivenAliasing). Alias classes only merge along
+ * assignments, so the class of a value always lies in its component of the
+ * assignment graph of the body. A query only runs the analysis over the
+ * component of its value, and only the definitions of that component's
+ * values change the facts. The result is kept for the other values of the
+ * component. A value never assigned to or from another one is its own
+ * class, and needs no fixpoint at all.
+ */
+public class DemandMayAliasAnalysis {
+
+	private final UnitGraph graph;
+	private final AliasValues values;
+
+	// Smallest member of the component of each value, and the members
+	private final int[] component;
+	private final Map<Integer, List<Integer>> members = new HashMap<Integer, List<Integer>>();
+
+	private final Map<Integer, ComponentAnalysis> analyses = new HashMap<Integer, ComponentAnalysis>();
+
+	public DemandMayAliasAnalysis(UnitGraph graph) {
+		this.graph = graph;
+		this.values = new AliasValues(graph.getBody());
+		this.component = new int[values.size()];
+		for (int i = 0; i < component.length; i++)
+			component[i] = i;
+
+		for (Unit u : graph) {
+			if (!(u instanceof DefinitionStmt))
+				continue;
+			int[] assignment = assignment((DefinitionStmt) u);
+			if (assignment != null)
+				link(assignment[0], assignment[1]);
+		}
+		for (int i = 0; i < component.length; i++) {
+			component[i] = find(i);
+			List<Integer> sameComponent = members.get(component[i]);
+			if (sameComponent == null) {
+				sameComponent = new ArrayList<Integer>();
+				members.put(component[i], sameComponent);
+			}
+			sameComponent.add(i);
+		}
+	}
+
+	/***** Queries *****/
+
+	public boolean mayAlias(Value v1, Value v2, Unit u) {
+		int n1 = values.numberOf(v1);
+		int n2 = values.numberOf(v2);
+		if (n1 < 0 || n2 < 0 || component[n1] != component[n2])
+			return false;
+		if (n1 == n2)
+			return true;
+		return analysisOf(component[n1]).mayAlias(n1, n2, u);
+	}
+
+	public Set<Value> mayAliases(Value v, Unit u) {
+		Set<Value> res = new HashSet<Value>();
+		int n = values.numberOf(v);
+		if (n < 0)
+			return res;
+		if (members.get(component[n]).size() == 1)
+			res.add(values.valueOf(n));
+		else
+			analysisOf(component[n]).addClass(n, u, res);
+		return res;
+	}
+
+	public Set<Value> mayAliasesAtExit(Value v) {
+		Set<Value> res = new HashSet<Value>();
+		int n = values.numberOf(v);
+		if (n < 0)
+			return res;
+		if (members.get(component[n]).size() == 1) {
+			res.add(values.valueOf(n));
+			return res;
+		}
+		ComponentAnalysis analysis = analysisOf(component[n]);
+		for (Unit u : graph.getTails())
+			analysis.addClass(n, u, res);
+		return res;
+	}
+
+	// Computed on the first query of one of its values
+	private synchronized ComponentAnalysis analysisOf(int root) {
+		ComponentAnalysis res = analyses.get(root);
+		if (res == null) {
+			res = new ComponentAnalysis(members.get(root));
+			analyses.put(root, res);
+		}
+		return res;
+	}
+
+	/***** Assignment graph *****/
+
+	// Numbers of the left and right value if the statement may make them alias
+	private int[] assignment(DefinitionStmt def) {
+		if (!AliasValues.isTracked(def.getLeftOp()) || !AliasValues.isTracked(def.getRightOp())
+				|| def.getRightOp() instanceof Constant)
+			return null;
+		int left = values.numberOf(def.getLeftOp());
+		int right = values.numberOf(def.getRightOp());
+		if (left == right)
+			return null;
+		return new int[] { left, right };
+	}
+
+	private void link(int x, int y) {
+		int rx = find(x);
+		int ry = find(y);
+		if (rx < ry)
+			component[ry] = rx;
+		else if (ry < rx)
+			component[rx] = ry;
+	}
+
+	private int find(int x) {
+		while (component[x] != x) {
+			component[x] = component[component[x]];
+			x = component[x];
+		}
+		return x;
+	}
+
+	/***** Analysis of one component *****/
+
+	// LocalMayAliasAnalysisWithFields over the members of a component,
+	// numbered by their position in the component
+	private class ComponentAnalysis extends AliasFlowAnalysis {
+
+		private final List<Integer> componentMembers;
+		private final Map<Integer, Integer> indexOf = new HashMap<Integer, Integer>();
+
+		private ComponentAnalysis(List<Integer> componentMembers) {
+			super(DemandMayAliasAnalysis.this.graph);
+			this.componentMembers = componentMembers;
+			for (int i = 0; i < componentMembers.size(); i++)
+				indexOf.put(componentMembers.get(i), i);
+			doAnalysis();
+		}
+
+		private boolean mayAlias(int n1, int n2, Unit u) {
+			return flowAfter(u).sameClass(indexOf.get(n1), indexOf.get(n2));
+		}
+
+		private void addClass(int n, Unit u, Set<Value> res) {
+			for (int member : flowAfter(u).classOf(indexOf.get(n)))
+				res.add(values.valueOf(componentMembers.get(member)));
+		}
+
+		@Override
+		protected void flowThrough(AliasPartition source, Unit unit, AliasPartition target) {
+			target.copyFrom(source);
+			if (!(unit instanceof DefinitionStmt))
+				return;
+			DefinitionStmt def = (DefinitionStmt) unit;
+			if (!AliasValues.isTracked(def.getLeftOp()))
+				return;
+			int left = values.numberOf(def.getLeftOp());
+
+			// Same steps as LocalMayAliasAnalysisWithFields, on this component
+			Integer leftIndex = indexOf.get(left);
+			if (leftIndex != null) {
+				target.isolate(leftIndex);
+				int[] assignment = assignment(def);
+				if (assignment != null)
+					target.union(leftIndex, indexOf.get(assignment[1]));
+			}
+			if (def.getLeftOp() instanceof Local) {
+				for (int child : values.childrenOf(left)) {
+					Integer childIndex = indexOf.get(child);
+					if (childIndex != null)
+						target.isolate(childIndex);
+				}
+			}
+		}
+
+		@Override
+		protected AliasPartition entryInitialFlow() {
+			return AliasPartition.discrete(componentMembers.size());
+		}
+	}
+}
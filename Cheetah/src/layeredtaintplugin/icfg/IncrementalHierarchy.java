@@ -0,0 +1,204 @@
+package layeredtaintplugin.icfg;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.util.Chain;
+
+/**
+ * Subtype index of the loaded classes, used for call resolution instead of
+ * Soot's FastHierarchy (Config.incrementalHierarchy). Soot appends the
+ * classes it loads to the scene's class chain, so a refresh only indexes
+ * the classes after the last one seen. Classes seen before they had a
+ * superclass are checked on every refresh, and indexed once they reach the
+ * hierarchy level. The index is rebuilt from scratch only when the scene
+ * itself changed.
+ */
+public class IncrementalHierarchy {
+
+	private Scene scene = null;
+	// Last class of the chain already indexed
+	private SootClass last = null;
+
+	// Direct subclasses, implementers and subinterfaces
+	private final Map<SootClass, Set<SootClass>> subclasses = new HashMap<SootClass, Set<SootClass>>();
+	private final Map<SootClass, Set<SootClass>> implementers = new HashMap<SootClass, Set<SootClass>>();
+	private final Map<SootClass, Set<SootClass>> subinterfaces = new HashMap<SootClass, Set<SootClass>>();
+
+	// Indexed while still dangling
+	private final Set<SootClass> pending = new HashSet<SootClass>();
+
+	private int patches = 0;
+	private int rebuilds = 0;
+
+	/***** Dispatch *****/
+
+	// Same results as FastHierarchy.resolveAbstractDispatch, without the
+	// targets which cannot be resolved in the loaded classes
+	public Set<SootMethod> resolveAbstractDispatch(SootClass type, SootMethod m) {
+		Set<SootMethod> res = new HashSet<SootMethod>();
+		for (SootClass sc : concreteSubtypesOf(type)) {
+			SootMethod target = resolveConcreteDispatch(sc, m);
+			if (target != null)
+				res.add(target);
+		}
+		return res;
+	}
+
+	// Implementation of m the virtual machine runs on an instance of the
+	// type, null if there is none in the loaded classes
+	public SootMethod resolveConcreteDispatch(SootClass type, SootMethod m) {
+		String subSignature = m.getSubSignature();
+		for (SootClass sc = type; sc != null; sc = sc.hasSuperclass() ? sc.getSuperclass() : null) {
+			SootMethod candidate = sc.getMethodUnsafe(subSignature);
+			if (candidate != null && isVisible(sc, m))
+				return candidate.isAbstract() ? null : candidate;
+		}
+		// Default methods
+		Deque<SootClass> interfaces = new ArrayDeque<SootClass>();
+		for (SootClass sc = type; sc != null; sc = sc.hasSuperclass() ? sc.getSuperclass() : null)
+			interfaces.addAll(sc.getInterfaces());
+		Set<SootClass> visited = new HashSet<SootClass>();
+		while (!interfaces.isEmpty()) {
+			SootClass itf = interfaces.poll();
+			if (!visited.add(itf))
+				continue;
+			SootMethod candidate = itf.getMethodUnsafe(subSignature);
+			if (candidate != null && !candidate.isAbstract())
+				return candidate;
+			interfaces.addAll(itf.getInterfaces());
+		}
+		return null;
+	}
+
+	private boolean isVisible(SootClass from, SootMethod m) {
+		if (m.isPublic() || m.isProtected())
+			return true;
+		if (m.isPrivate())
+			return from == m.getDeclaringClass();
+		return from.getJavaPackageName().equals(m.getDeclaringClass().getJavaPackageName());
+	}
+
+	// Classes which can be instantiated and are the type or below it
+	public synchronized Set<SootClass> concreteSubtypesOf(SootClass type) {
+		refresh();
+		Set<SootClass> res = new HashSet<SootClass>();
+		Set<SootClass> visited = new HashSet<SootClass>();
+		Deque<SootClass> worklist = new ArrayDeque<SootClass>();
+		worklist.add(type);
+		while (!worklist.isEmpty()) {
+			SootClass sc = worklist.poll();
+			if (!visited.add(sc))
+				continue;
+			if (sc.isInterface()) {
+				worklist.addAll(childrenOf(implementers, sc));
+				worklist.addAll(childrenOf(subinterfaces, sc));
+			} else {
+				if (!sc.isAbstract())
+					res.add(sc);
+				worklist.addAll(childrenOf(subclasses, sc));
+			}
+		}
+		return res;
+	}
+
+	/***** Maintenance *****/
+
+	// Index the classes loaded since the last refresh
+	public synchronized void refresh() {
+		synchronized (Scene.v()) {
+			Chain<SootClass> classes = Scene.v().getClasses();
+			if (scene != Scene.v() || (last != null && !classes.contains(last))) {
+				clear();
+				scene = Scene.v();
+				rebuilds++;
+			}
+			// Resolved since they were seen, often without any new class in the
+			// chain when their supertypes were loaded already
+			for (Iterator<SootClass> pit = pending.iterator(); pit.hasNext();) {
+				SootClass sc = pit.next();
+				if (sc.resolvingLevel() >= SootClass.HIERARCHY) {
+					pit.remove();
+					add(sc);
+					patches++;
+				}
+			}
+
+			if (classes.isEmpty() || last == classes.getLast())
+				return;
+			patches++;
+			Iterator<SootClass> it = last == null ? classes.iterator() : classes.iterator(classes.getSuccOf(last));
+			while (it.hasNext())
+				add(it.next());
+			last = classes.getLast();
+		}
+	}
+
+	// Index the class again, e.g. after its class file changed
+	public synchronized void invalidate(SootClass sc) {
+		remove(subclasses, sc);
+		remove(implementers, sc);
+		remove(subinterfaces, sc);
+		add(sc);
+	}
+
+	public synchronized int getPatches() {
+		return patches;
+	}
+
+	public synchronized int getRebuilds() {
+		return rebuilds;
+	}
+
+	private void add(SootClass sc) {
+		if (sc.resolvingLevel() < SootClass.HIERARCHY) {
+			pending.add(sc);
+			return;
+		}
+		if (sc.isInterface()) {
+			for (SootClass itf : sc.getInterfaces())
+				childrenFor(subinterfaces, itf).add(sc);
+		} else {
+			if (sc.hasSuperclass())
+				childrenFor(subclasses, sc.getSuperclass()).add(sc);
+			for (SootClass itf : sc.getInterfaces())
+				childrenFor(implementers, itf).add(sc);
+		}
+	}
+
+	private void remove(Map<SootClass, Set<SootClass>> index, SootClass sc) {
+		for (Set<SootClass> children : index.values())
+			children.remove(sc);
+	}
+
+	private void clear() {
+		subclasses.clear();
+		implementers.clear();
+		subinterfaces.clear();
+		pending.clear();
+		last = null;
+	}
+
+	private static Set<SootClass> childrenOf(Map<SootClass, Set<SootClass>> index, SootClass sc) {
+		Set<SootClass> res = index.get(sc);
+		return res == null ? Collections.<SootClass> emptySet() : res;
+	}
+
+	private static Set<SootClass> childrenFor(Map<SootClass, Set<SootClass>> index, SootClass sc) {
+		Set<SootClass> res = index.get(sc);
+		if (res == null) {
+			res = new HashSet<SootClass>();
+			index.put(sc, res);
+		}
+		return res;
+	}
+}
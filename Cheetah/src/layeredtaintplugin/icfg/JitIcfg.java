@@ -6,18 +6,21 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 
 import heros.SynchronizedBy;
-import heros.solver.IDESolver;
+import layeredtaintplugin.Config;
 import soot.ArrayType;
 import soot.Body;
-import soot.FastHierarchy;
 import soot.Local;
 import soot.NullType;
 import soot.PackManager;
@@ -30,6 +33,8 @@ import soot.SourceLocator;
 import soot.Transform;
 import soot.Unit;
 import soot.Value;
+import soot.ValueBox;
+import soot.jimple.FieldRef;
 import soot.jimple.InstanceInvokeExpr;
 import soot.jimple.InterfaceInvokeExpr;
 import soot.jimple.InvokeExpr;
@@ -39,12 +44,13 @@ import soot.jimple.VirtualInvokeExpr;
 import soot.jimple.toolkits.ide.icfg.AbstractJimpleBasedICFG;
 import soot.jimple.toolkits.pointer.LocalMustNotAliasAnalysis;
 import soot.options.Options;
+import soot.toolkits.graph.DirectedGraph;
 import soot.toolkits.graph.UnitGraph;
 
 public class JitIcfg extends AbstractJimpleBasedICFG {
 
 	@SynchronizedBy("by use of synchronized LoadingCache class")
-	protected final LoadingCache<Body, LocalMustNotAliasAnalysis> bodyToLMNAA = IDESolver.DEFAULT_CACHE_BUILDER
+	protected final LoadingCache<Body, LocalMustNotAliasAnalysis> bodyToLMNAA = bodyCache()
 			.build(new CacheLoader<Body, LocalMustNotAliasAnalysis>() {
 				@Override
 				public LocalMustNotAliasAnalysis load(Body body) throws Exception {
@@ -53,7 +59,7 @@ public class JitIcfg extends AbstractJimpleBasedICFG {
 			});
 
 	@SynchronizedBy("by use of synchronized LoadingCache class")
-	protected final LoadingCache<Body, LocalMayAliasAnalysisWithFields> bodyToLMAAWF = IDESolver.DEFAULT_CACHE_BUILDER
+	protected final LoadingCache<Body, LocalMayAliasAnalysisWithFields> bodyToLMAAWF = bodyCache()
 			.build(new CacheLoader<Body, LocalMayAliasAnalysisWithFields>() {
 				@Override
 				public LocalMayAliasAnalysisWithFields load(Body body) throws Exception {
@@ -61,22 +67,68 @@ public class JitIcfg extends AbstractJimpleBasedICFG {
 				}
 			});
 
+	@SynchronizedBy("by use of synchronized LoadingCache class")
+	protected final LoadingCache<Body, DemandMayAliasAnalysis> bodyToDMAA = bodyCache()
+			.build(new CacheLoader<Body, DemandMayAliasAnalysis>() {
+				@Override
+				public DemandMayAliasAnalysis load(Body body) throws Exception {
+					return new DemandMayAliasAnalysis((UnitGraph) getOrCreateUnitGraph(body));
+				}
+			});
+
+	@SynchronizedBy("by use of synchronized LoadingCache class")
+	protected final LoadingCache<Body, UnitOrdering> bodyToOrdering = bodyCache()
+			.build(new CacheLoader<Body, UnitOrdering>() {
+				@Override
+				public UnitOrdering load(Body body) throws Exception {
+					return new UnitOrdering(body);
+				}
+			});
+
 	public Set<Value> mayAlias(Value v, Unit u) {
+		if (Config.demandDrivenAliasing)
+			return bodyToDMAA.getUnchecked(unitToOwner.get(u)).mayAliases(v, u);
 		return bodyToLMAAWF.getUnchecked(unitToOwner.get(u)).mayAliases(v, u);
 	}
 
 	public Unit lastOccurenceOf(Local l, Unit u) {
-		return bodyToLMAAWF.getUnchecked(unitToOwner.get(u)).lastOccurenceOf(l);
+		return getOrdering(unitToOwner.get(u)).lastOccurenceOf(l);
+	}
+
+	// Build the per-body results ahead of the first query. The unit graph
+	// resolves exception types and the alias analyses compare field
+	// references by their resolved field, which may add phantom fields: the
+	// graph is built and the fields resolved under the Scene lock, so that
+	// the alias fixpoint only reads classes which no longer change.
+	public void warm(Body b) {
+		synchronized (Scene.v()) {
+			getOrCreateUnitGraph(b);
+			for (ValueBox box : b.getUseAndDefBoxes())
+				if (box.getValue() instanceof FieldRef)
+					((FieldRef) box.getValue()).getField();
+		}
+		if (Config.demandDrivenAliasing)
+			bodyToDMAA.getUnchecked(b);
+		else
+			bodyToLMAAWF.getUnchecked(b);
+	}
+
+	public UnitOrdering getOrdering(Body b) {
+		return bodyToOrdering.getUnchecked(b);
 	}
 
+	// Used instead of Soot's FastHierarchy if Config.incrementalHierarchy
+	protected final IncrementalHierarchy hierarchy = new IncrementalHierarchy();
+
 	@SynchronizedBy("by use of synchronized LoadingCache class")
-	public final LoadingCache<Unit, Set<SootMethod>> unitToCallees = IDESolver.DEFAULT_CACHE_BUILDER
+	public final LoadingCache<Unit, Set<SootMethod>> unitToCallees = CacheBuilder.newBuilder()
+			.concurrencyLevel(Runtime.getRuntime().availableProcessors()).maximumSize(Config.calleeCacheSize)
+			.softValues().recordStats()
 			.build(new CacheLoader<Unit, Set<SootMethod>>() {
 				@Override
 				public Set<SootMethod> load(Unit u) throws Exception {
 					Stmt stmt = (Stmt) u;
 					InvokeExpr ie = stmt.getInvokeExpr();
-					FastHierarchy fastHierarchy = Scene.v().getFastHierarchy();
 					// FIXME Handle Thread.start etc.
 					if (ie instanceof InstanceInvokeExpr) {
 						if (ie instanceof SpecialInvokeExpr) {
@@ -91,9 +143,10 @@ public class JitIcfg extends AbstractJimpleBasedICFG {
 							if (concreteType != null) {
 								// the base variable definitely points to a
 								// single concrete type
-								SootMethod singleTargetMethod = fastHierarchy
-										.resolveConcreteDispatch(concreteType.getSootClass(), iie.getMethod());
-								return Collections.singleton(singleTargetMethod);
+								SootMethod singleTargetMethod = resolveConcreteDispatch(concreteType.getSootClass(),
+										iie.getMethod());
+								return singleTargetMethod == null ? Collections.<SootMethod> emptySet()
+										: Collections.singleton(singleTargetMethod);
 							} else {
 								SootClass baseTypeClass;
 								if (base.getType() instanceof RefType) {
@@ -108,7 +161,7 @@ public class JitIcfg extends AbstractJimpleBasedICFG {
 								} else {
 									throw new InternalError("Unexpected base type:" + base.getType());
 								}
-								return fastHierarchy.resolveAbstractDispatch(baseTypeClass, iie.getMethod());
+								return resolveAbstractDispatch(baseTypeClass, iie.getMethod());
 							}
 						}
 					} else {
@@ -118,50 +171,200 @@ public class JitIcfg extends AbstractJimpleBasedICFG {
 				}
 			});
 
-	@SynchronizedBy("explicit lock on data structure")
-	protected Map<SootMethod, Set<Unit>> methodToCallers = new HashMap<SootMethod, Set<Unit>>();
+	@SynchronizedBy("lock-free, by use of the concurrent CallerIndex class")
+	protected final CallerIndex callers = new CallerIndex();
+
+	// Body whose units are in unitToOwner, by method and declaring class. A
+	// method keeps one body there: the units of a replaced body are forgotten.
+	//
+	// Neither map is bounded, and neither may drop a body the caches evict:
+	// getMethodOf and getBodyOf must answer for every unit the jump
+	// functions, summaries and reports still hold, and IncrementalSummaries
+	// takes a unit without a body for an invalidated one. The maps grow with
+	// the bodies the IFDS tables can refer to, and live as long as those
+	// tables: the icfg is replaced with them when a run starts from fresh
+	// tables, and in incremental mode the bodies of changed methods are
+	// invalidated.
+	// Holding the bodies does not keep the per-body caches: their values are
+	// soft and weighed, and the bodies themselves are held by their methods.
+	@SynchronizedBy("explicit lock on the Scene, as unitToOwner")
+	protected final Map<SootClass, Map<SootMethod, Body>> bodiesByClass = new HashMap<SootClass, Map<SootMethod, Body>>();
 
 	public JitIcfg(SootMethod... entryPoints) {
 		this(Arrays.asList(entryPoints));
 	}
 
 	public JitIcfg(Collection<SootMethod> entryPoints) {
+		bodyToUnitGraph = bodyCache().build(new CacheLoader<Body, DirectedGraph<Unit>>() {
+			@Override
+			public DirectedGraph<Unit> load(Body body) throws Exception {
+				return makeGraph(body);
+			}
+		});
 		for (SootMethod m : entryPoints) {
 			initForMethod(m);
 		}
 	}
 
 	public Body initForMethod(SootMethod m) {
-		assert Scene.v().hasFastHierarchy();
+		assert Config.incrementalHierarchy || Scene.v().hasFastHierarchy();
 		Body b = null;
 		if (m.isConcrete()) {
 			SootClass declaringClass = m.getDeclaringClass();
 			ensureClassHasBodies(declaringClass);
 			synchronized (Scene.v()) {
 				b = m.retrieveActiveBody();
-			}
-			if (b != null) {
-				for (Unit u : b.getUnits()) {
-					if (unitToOwner.put(u, b) != null) {
-						// if the unit was registered already then so were all
-						// units;
-						// simply skip the rest
-						break;
-					}
-				}
+				// tasks may be solved in parallel, register units under the
+				// same lock
+				if (b != null)
+					register(b);
 			}
 		}
-		assert Scene.v().hasFastHierarchy();
+		assert Config.incrementalHierarchy || Scene.v().hasFastHierarchy();
 		return b;
 	}
 
+	public Body getBodyOf(Unit u) {
+		return unitToOwner.get(u);
+	}
+
+	public Set<Body> getBodies() {
+		synchronized (Scene.v()) {
+			Set<Body> res = new HashSet<Body>();
+			for (Map<SootMethod, Body> bodies : bodiesByClass.values())
+				res.addAll(bodies.values());
+			return res;
+		}
+	}
+
+	// Forget everything computed for the units of the given body
+	public void invalidate(Body b) {
+		synchronized (Scene.v()) {
+			Map<SootMethod, Body> bodies = bodiesByClass.get(b.getMethod().getDeclaringClass());
+			if (bodies != null && bodies.get(b.getMethod()) == b)
+				bodies.remove(b.getMethod());
+		}
+		forget(b);
+		callers.removeCallersOf(b.getMethod());
+	}
+
+	// Forget the bodies of all methods of the class, e.g. when it changed
+	public void invalidate(SootClass sc) {
+		Set<Body> bodies;
+		synchronized (Scene.v()) {
+			Map<SootMethod, Body> classBodies = bodiesByClass.remove(sc);
+			bodies = classBodies == null ? Collections.<Body> emptySet() : new HashSet<Body>(classBodies.values());
+		}
+		for (Body b : bodies) {
+			forget(b);
+			callers.removeCallersOf(b.getMethod());
+		}
+		if (Config.incrementalHierarchy)
+			hierarchy.invalidate(sc);
+	}
+
+	// Under the Scene lock
+	private void register(Body b) {
+		SootMethod m = b.getMethod();
+		Map<SootMethod, Body> bodies = bodiesByClass.get(m.getDeclaringClass());
+		if (bodies == null) {
+			bodies = new HashMap<SootMethod, Body>();
+			bodiesByClass.put(m.getDeclaringClass(), bodies);
+		}
+		Body old = bodies.put(m, b);
+		if (old == b)
+			return;
+		// The method's callers stay, only its old units are gone
+		if (old != null)
+			forget(old);
+		for (Unit u : b.getUnits())
+			unitToOwner.put(u, b);
+	}
+
+	// Units of the body and the results computed for it
+	private void forget(Body b) {
+		synchronized (Scene.v()) {
+			for (Unit u : b.getUnits()) {
+				if (unitToOwner.get(u) == b)
+					unitToOwner.remove(u);
+				unitToCallees.invalidate(u);
+			}
+		}
+		bodyToUnitGraph.invalidate(b);
+		bodyToLMNAA.invalidate(b);
+		bodyToLMAAWF.invalidate(b);
+		bodyToDMAA.invalidate(b);
+		bodyToOrdering.invalidate(b);
+		for (Unit u : b.getUnits())
+			callers.removeCallSite(u);
+	}
+
+	/***** Dispatch *****/
+
+	// Index patched with the classes loaded since the last call, or Soot's
+	// FastHierarchy, rebuilt whenever the scene's classes changed. The
+	// FastHierarchy is built and read under the Scene lock, as the prefetcher
+	// loads classes meanwhile.
+	protected SootMethod resolveConcreteDispatch(SootClass type, SootMethod m) {
+		if (Config.incrementalHierarchy) {
+			hierarchy.refresh();
+			return hierarchy.resolveConcreteDispatch(type, m);
+		}
+		synchronized (Scene.v()) {
+			return Scene.v().getOrMakeFastHierarchy().resolveConcreteDispatch(type, m);
+		}
+	}
+
+	protected Set<SootMethod> resolveAbstractDispatch(SootClass type, SootMethod m) {
+		if (Config.incrementalHierarchy) {
+			hierarchy.refresh();
+			return hierarchy.resolveAbstractDispatch(type, m);
+		}
+		synchronized (Scene.v()) {
+			return Scene.v().getOrMakeFastHierarchy().resolveAbstractDispatch(type, m);
+		}
+	}
+
+	public IncrementalHierarchy getHierarchy() {
+		return hierarchy;
+	}
+
+	/***** Caches *****/
+
+	// Per-body results, bounded by the units of the cached bodies and held
+	// softly
+	protected static CacheBuilder<Body, Object> bodyCache() {
+		return CacheBuilder.newBuilder().concurrencyLevel(Runtime.getRuntime().availableProcessors())
+				.maximumWeight(Config.bodyCacheUnits).weigher(new Weigher<Body, Object>() {
+					@Override
+					public int weigh(Body body, Object value) {
+						return body.getUnits().size();
+					}
+				}).softValues().recordStats();
+	}
+
+	// Hits, misses and evictions since the ICFG was created
+	public Map<String, CacheStats> getCacheStatistics() {
+		Map<String, CacheStats> res = new LinkedHashMap<String, CacheStats>();
+		res.put("unitGraphs", bodyToUnitGraph.stats());
+		res.put("mustNotAlias", bodyToLMNAA.stats());
+		res.put("mayAlias", bodyToLMAAWF.stats());
+		res.put("demandMayAlias", bodyToDMAA.stats());
+		res.put("unitOrdering", bodyToOrdering.stats());
+		res.put("callees", unitToCallees.stats());
+		return res;
+	}
+
 	private synchronized void ensureClassHasBodies(SootClass cl) {
-		assert Scene.v().hasFastHierarchy();
-		if (cl.resolvingLevel() < SootClass.BODIES) {
-			Scene.v().forceResolve(cl.getName(), SootClass.BODIES);
-			Scene.v().getOrMakeFastHierarchy();
+		assert Config.incrementalHierarchy || Scene.v().hasFastHierarchy();
+		synchronized (Scene.v()) {
+			if (cl.resolvingLevel() < SootClass.BODIES) {
+				Scene.v().forceResolve(cl.getName(), SootClass.BODIES);
+				if (!Config.incrementalHierarchy)
+					Scene.v().getOrMakeFastHierarchy();
+			}
 		}
-		assert Scene.v().hasFastHierarchy();
+		assert Config.incrementalHierarchy || Scene.v().hasFastHierarchy();
 	}
 
 	@Override
@@ -175,20 +378,12 @@ public class JitIcfg extends AbstractJimpleBasedICFG {
 	}
 
 	public void addCallerForMethod(Unit callSite, SootMethod target) {
-		synchronized (methodToCallers) {
-			Set<Unit> callers = methodToCallers.get(target);
-			if (callers == null) {
-				callers = new HashSet<Unit>();
-				methodToCallers.put(target, callers);
-			}
-			callers.add(callSite);
-		}
+		callers.add(callSite, target);
 	}
 
 	@Override
 	public Set<Unit> getCallersOf(SootMethod m) {
-		Set<Unit> callers = methodToCallers.get(m);
-		return callers == null ? Collections.<Unit> emptySet() : callers;
+		return callers.callersOf(m);
 
 		// throw new
 		// UnsupportedOperationException("This class is not suited for
@@ -0,0 +1,47 @@
+package layeredtaintplugin.icfg;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import soot.Body;
+import soot.Local;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+
+/**
+ * Position of the units of a body in its unit chain, and the last unit that
+ * uses or defines each local. Built once per body by JitIcfg.
+ */
+public class UnitOrdering {
+
+	private final Map<Unit, Integer> ordinals = new IdentityHashMap<Unit, Integer>();
+	private final Map<Local, Unit> lastOccurence = new HashMap<Local, Unit>();
+
+	public UnitOrdering(Body body) {
+		int ordinal = 0;
+		for (Unit u : body.getUnits()) {
+			ordinals.put(u, ordinal++);
+			for (ValueBox vb : u.getUseAndDefBoxes()) {
+				Value v = vb.getValue();
+				if (v instanceof Local)
+					lastOccurence.put((Local) v, u);
+			}
+		}
+	}
+
+	// -1 for units of other bodies
+	public int ordinalOf(Unit u) {
+		Integer res = ordinals.get(u);
+		return res == null ? -1 : res;
+	}
+
+	public boolean comesAfter(Unit u, Unit ref) {
+		return ordinalOf(u) > ordinalOf(ref);
+	}
+
+	public Unit lastOccurenceOf(Local l) {
+		return lastOccurence.get(l);
+	}
+}
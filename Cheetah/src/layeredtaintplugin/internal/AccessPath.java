@@ -0,0 +1,144 @@
+package layeredtaintplugin.internal;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
+
+import layeredtaintplugin.Config;
+import soot.SootField;
+
+/**
+ * Field access path of a fact, as an interned trie node: a path is its
+ * parent path plus its last field. Equal paths are the same node, paths
+ * share their prefixes, and appending, dropping the first field and
+ * truncating to Config.apLength do not copy anything.
+ */
+public final class AccessPath {
+
+	private static final AccessPath EMPTY = new AccessPath(null, null);
+
+	private final AccessPath parent;
+	private final SootField field;
+	private final SootField first;
+	private final int length;
+	// Same as Arrays.hashCode of the fields
+	private final int hash;
+
+	// Path without the first field, computed on first use
+	private volatile AccessPath postfix = null;
+	// Held weakly, a path disappears once no fact refers to it
+	private volatile ConcurrentMap<SootField, AccessPath> children = null;
+
+	private AccessPath(AccessPath parent, SootField field) {
+		this.parent = parent;
+		this.field = field;
+		if (parent == null) {
+			this.first = null;
+			this.length = 0;
+			this.hash = 1;
+		} else {
+			this.first = parent.isEmpty() ? field : parent.first;
+			this.length = parent.length + 1;
+			this.hash = 31 * parent.hash + field.hashCode();
+		}
+	}
+
+	public static AccessPath empty() {
+		return EMPTY;
+	}
+
+	public static AccessPath v(SootField field) {
+		return EMPTY.append(field);
+	}
+
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	// Null for the empty path
+	public SootField getFirst() {
+		return first;
+	}
+
+	public SootField getLast() {
+		return field;
+	}
+
+	/***** Operations *****/
+
+	// Fields beyond Config.apLength are dropped
+	public AccessPath append(SootField f) {
+		if (length >= Config.apLength)
+			return this;
+		ConcurrentMap<SootField, AccessPath> children = children();
+		AccessPath child = children.get(f);
+		if (child == null) {
+			AccessPath newChild = new AccessPath(this, f);
+			child = children.putIfAbsent(f, newChild);
+			if (child == null)
+				child = newChild;
+		}
+		return child;
+	}
+
+	public AccessPath append(AccessPath other) {
+		if (other.isEmpty() || length >= Config.apLength)
+			return this;
+		return append(other.parent).append(other.field);
+	}
+
+	// The first fields of the path
+	public AccessPath prefix(int length) {
+		AccessPath res = this;
+		while (res.length > length)
+			res = res.parent;
+		return res;
+	}
+
+	// The path without its first field
+	public AccessPath postfix() {
+		if (length <= 1)
+			return EMPTY;
+		AccessPath res = postfix;
+		if (res == null) {
+			res = parent.postfix().append(field);
+			postfix = res;
+		}
+		return res;
+	}
+
+	private ConcurrentMap<SootField, AccessPath> children() {
+		ConcurrentMap<SootField, AccessPath> res = children;
+		if (res == null) {
+			synchronized (this) {
+				res = children;
+				if (res == null) {
+					res = new MapMaker().concurrencyLevel(1).weakValues().makeMap();
+					children = res;
+				}
+			}
+		}
+		return res;
+	}
+
+	/***** Utils *****/
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	// Field names from the first, separated by dots
+	@Override
+	public String toString() {
+		if (isEmpty())
+			return "";
+		if (parent.isEmpty())
+			return field.getName();
+		return parent.toString() + "." + field.getName();
+	}
+}
@@ -0,0 +1,80 @@
+package layeredtaintplugin.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import layeredtaintplugin.Config;
+import layeredtaintplugin.internal.layer.Layer;
+
+/**
+ * Access-path bound of one analysis task (Config.adaptiveApLength). Inner,
+ * cheap layers keep long paths, outer layers start shorter. When the task
+ * has added Config.apWideningThreshold jump function edges, the bound is
+ * shortened by one field and the threshold doubled; each widening is logged
+ * and counted in the task statistics. The edges are counted by the task's
+ * solver as it adds them, so tasks solved at the same time do not count.
+ */
+public class AccessPathLimit {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(AccessPathLimit.class);
+
+	private final Task task;
+	private final TaskStatistics statistics;
+
+	private volatile int bound;
+	private final AtomicLong edges = new AtomicLong();
+	private volatile long threshold = Config.apWideningThreshold;
+
+	public AccessPathLimit(Task task, TaskStatistics statistics) {
+		this.task = task;
+		this.statistics = statistics;
+		this.bound = initialBound(task.getLayer());
+		if (statistics != null)
+			statistics.setApLength(bound);
+	}
+
+	public static int initialBound(Layer layer) {
+		switch (layer) {
+		case INTRA:
+		case CLASS:
+		case CLASS_CALLBACKS:
+			return Config.apLength;
+		case FILE:
+		case PACKAGE:
+			return Math.max(1, Config.apLength - 1);
+		default:
+			return Math.max(1, Config.apLength - 2);
+		}
+	}
+
+	public int getBound() {
+		return bound;
+	}
+
+	// The fact to propagate, cut to the current bound
+	public FlowAbstraction limit(FlowAbstraction fa) {
+		return fa.truncate(bound);
+	}
+
+	// Called by the solver threads for each edge the task adds
+	public void edgeAdded() {
+		if (edges.incrementAndGet() >= threshold)
+			widen();
+	}
+
+	private synchronized void widen() {
+		long count = edges.get();
+		if (count < threshold)
+			return;
+		threshold *= 2;
+		if (bound == 1)
+			return;
+		bound--;
+		LOGGER.info("Access paths of " + task.getLayer() + " task " + task.getStartMethod().getSignature()
+				+ " cut to " + bound + " after " + count + " edges");
+		if (statistics != null)
+			statistics.widened(bound);
+	}
+}
@@ -0,0 +1,236 @@
+package layeredtaintplugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.cache.CacheStats;
+
+import layeredtaintplugin.internal.layer.Layer;
+
+/**
+ * Measurements of a layered analysis run, per task and aggregated per
+ * layer. Classes loaded by parallel tasks are recorded per batch, whose
+ * tasks all belong to one layer. Can be exported as JSON.
+ */
+public class AnalysisStatistics {
+
+	private final int runId;
+	private final String startPoint;
+	private final List<TaskStatistics> tasks = new ArrayList<TaskStatistics>();
+	// Classes loaded by the batches of parallel tasks, by layer
+	private final Map<Layer, Integer> batchClassesLoaded = new EnumMap<Layer, Integer>(Layer.class);
+	private long startTime = 0;
+	private long wallTime = 0;
+	// ICFG caches at the end of the run
+	private Map<String, CacheStats> caches = Collections.emptyMap();
+
+	public AnalysisStatistics(int runId, String startPoint) {
+		this.runId = runId;
+		this.startPoint = startPoint;
+	}
+
+	public void start() {
+		this.startTime = System.nanoTime();
+	}
+
+	public void end() {
+		this.wallTime = System.nanoTime() - startTime;
+	}
+
+	public void setCaches(Map<String, CacheStats> caches) {
+		this.caches = caches;
+	}
+
+	public synchronized void add(TaskStatistics task) {
+		tasks.add(task);
+	}
+
+	public synchronized void addBatch(Layer layer, int classesLoaded) {
+		Integer loaded = batchClassesLoaded.get(layer);
+		batchClassesLoaded.put(layer, (loaded == null ? 0 : loaded) + classesLoaded);
+	}
+
+	/***** Snapshot *****/
+
+	public int getRunId() {
+		return runId;
+	}
+
+	public String getStartPoint() {
+		return startPoint;
+	}
+
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	public Map<String, CacheStats> getCaches() {
+		return caches;
+	}
+
+	public synchronized List<TaskStatistics> getTasks() {
+		return new ArrayList<TaskStatistics>(tasks);
+	}
+
+	// Layers in analysis order, only those which ran a task
+	public Map<Layer, LayerStatistics> getLayers() {
+		Map<Layer, LayerStatistics> layers = new LinkedHashMap<Layer, LayerStatistics>();
+		for (Layer layer : Layer.values())
+			layers.put(layer, new LayerStatistics());
+		for (TaskStatistics task : getTasks())
+			layers.get(task.getLayer()).add(task);
+		synchronized (this) {
+			for (Map.Entry<Layer, Integer> batch : batchClassesLoaded.entrySet())
+				layers.get(batch.getKey()).classesLoaded += batch.getValue();
+		}
+		for (Layer layer : Layer.values())
+			if (layers.get(layer).getTasks() == 0)
+				layers.remove(layer);
+		return layers;
+	}
+
+	public static class LayerStatistics {
+
+		private int tasks = 0;
+		private long wallTime = 0;
+		private long propagations = 0;
+		private long jumpFunctionGrowth = 0;
+		private int spawnedTasks = 0;
+		private int classesLoaded = 0;
+		private int widenings = 0;
+
+		private void add(TaskStatistics task) {
+			tasks++;
+			wallTime += task.getWallTime();
+			propagations += task.getPropagations();
+			jumpFunctionGrowth += task.getJumpFunctionGrowth();
+			spawnedTasks += task.getSpawnedTasks();
+			if (task.getClassesLoaded() != TaskStatistics.UNKNOWN)
+				classesLoaded += task.getClassesLoaded();
+			widenings += task.getWidenings();
+		}
+
+		public int getTasks() {
+			return tasks;
+		}
+
+		public long getWallTime() {
+			return wallTime;
+		}
+
+		public long getPropagations() {
+			return propagations;
+		}
+
+		public long getJumpFunctionGrowth() {
+			return jumpFunctionGrowth;
+		}
+
+		public int getSpawnedTasks() {
+			return spawnedTasks;
+		}
+
+		public int getClassesLoaded() {
+			return classesLoaded;
+		}
+
+		public int getWidenings() {
+			return widenings;
+		}
+	}
+
+	/***** Export *****/
+
+	// One line per layer, for the views
+	public String toSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Run " + runId + ": " + getTasks().size() + " tasks in " + millis(wallTime) + " ms");
+		for (Map.Entry<Layer, LayerStatistics> entry : getLayers().entrySet())
+			sb.append(" | " + entry.getKey() + " " + entry.getValue().getTasks() + " tasks, "
+					+ millis(entry.getValue().getWallTime()) + " ms"
+					+ (entry.getValue().getWidenings() > 0 ? ", " + entry.getValue().getWidenings() + " widenings"
+							: ""));
+		return sb.toString();
+	}
+
+	public String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"runId\": " + runId + ",\n");
+		sb.append("  \"startPoint\": " + quote(startPoint) + ",\n");
+		sb.append("  \"wallTimeMs\": " + millis(wallTime) + ",\n");
+		sb.append("  \"layers\": [");
+		String sep = "\n";
+		for (Map.Entry<Layer, LayerStatistics> entry : getLayers().entrySet()) {
+			LayerStatistics layer = entry.getValue();
+			sb.append(sep + "    {\"layer\": " + quote(entry.getKey().toString()) + ", \"tasks\": " + layer.getTasks()
+					+ ", \"wallTimeMs\": " + millis(layer.getWallTime()) + ", \"propagations\": "
+					+ layer.getPropagations() + ", \"jumpFunctionGrowth\": " + layer.getJumpFunctionGrowth()
+					+ ", \"spawnedTasks\": " + layer.getSpawnedTasks() + ", \"classesLoaded\": "
+					+ layer.getClassesLoaded() + ", \"widenings\": " + layer.getWidenings() + "}");
+			sep = ",\n";
+		}
+		sb.append("\n  ],\n");
+		sb.append("  \"tasks\": [");
+		sep = "\n";
+		for (TaskStatistics task : getTasks()) {
+			sb.append(sep + "    {\"layer\": " + quote(task.getLayer().toString()) + ", \"method\": "
+					+ quote(task.getMethod()) + ", \"unit\": " + quote(task.getUnit()) + ", \"wallTimeMs\": "
+					+ millis(task.getWallTime()) + ", \"propagations\": " + task.getPropagations()
+					+ ", \"jumpFunctionGrowth\": " + task.getJumpFunctionGrowth() + ", \"spawnedTasks\": "
+					+ task.getSpawnedTasks() + ", \"classesLoaded\": "
+					+ (task.getClassesLoaded() == TaskStatistics.UNKNOWN ? "null" : task.getClassesLoaded())
+					+ ", \"apLength\": " + task.getApLength() + ", \"widenings\": " + task.getWidenings() + "}");
+			sep = ",\n";
+		}
+		sb.append("\n  ],\n");
+		sb.append("  \"caches\": [");
+		sep = "\n";
+		for (Map.Entry<String, CacheStats> entry : caches.entrySet()) {
+			CacheStats cache = entry.getValue();
+			sb.append(sep + "    {\"cache\": " + quote(entry.getKey()) + ", \"hits\": " + cache.hitCount()
+					+ ", \"misses\": " + cache.missCount() + ", \"evictions\": " + cache.evictionCount() + "}");
+			sep = ",\n";
+		}
+		sb.append("\n  ]\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String quote(String s) {
+		if (s == null)
+			return "null";
+		StringBuilder sb = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					sb.append(String.format("\\u%04x", (int) c));
+				else
+					sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
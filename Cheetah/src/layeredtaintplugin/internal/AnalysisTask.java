@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -17,14 +18,15 @@ import com.google.common.collect.Table;
 import heros.EdgeFunction;
 import heros.FlowFunction;
 import heros.FlowFunctions;
+import heros.InterproceduralCFG;
 import heros.solver.IFDSSolver;
 import heros.solver.IFDSSolver.BinaryDomain;
-import heros.solver.JumpFunctions;
 import layeredtaintplugin.Config;
 import layeredtaintplugin.android.SetupApplicationJIT;
 import layeredtaintplugin.icfg.JitIcfg;
+import layeredtaintplugin.internal.LibrarySummaryStore.MethodSummary;
 import layeredtaintplugin.internal.layer.Layer;
-import layeredtaintplugin.reporter.Reporter;
+import layeredtaintplugin.reporter.AbstractReporter;
 import soot.Body;
 import soot.Local;
 import soot.Scene;
@@ -64,12 +66,20 @@ public abstract class AnalysisTask {
 	protected final static boolean DEBUG_SANITIZE = false;
 	protected final static boolean DEBUG_DUMMY_MAIN = false;
 
-	private Reporter reporter;
+	private AbstractReporter reporter;
+	private LibrarySummaryStore librarySummaries = null;
+	private TaskStatistics statistics = null;
+	private CancellationToken cancellation = null;
+	private SourceSinkClassification sourceSinks = null;
+	private RapidTypeResolver typeResolver = null;
+	private ProjectOverrides projectOverrides = null;
+	// Threads of the task's solver, 0 for the solver's default
+	private int solverThreads = 0;
 
 	protected final Task task;
 	protected Set<Task> nextTasks = new HashSet<Task>();
 
-	protected JumpFunctions<Unit, FlowAbstraction, BinaryDomain> jumpFunctions;
+	protected IncrementalJumpFunctions<Unit, BinaryDomain> jumpFunctions;
 	protected Table<Unit, FlowAbstraction, Table<Unit, FlowAbstraction, EdgeFunction<BinaryDomain>>> endSum;
 	protected Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> inc;
 	protected JitIcfg icfg;
@@ -82,19 +92,54 @@ public abstract class AnalysisTask {
 		this.projectInformation = projectInformation;
 	}
 
-	public void setAnalysisInfo(JumpFunctions<Unit, FlowAbstraction, BinaryDomain> jumpFunctions,
+	public void setAnalysisInfo(IncrementalJumpFunctions<Unit, BinaryDomain> jumpFunctions,
 			Table<Unit, FlowAbstraction, Table<Unit, FlowAbstraction, EdgeFunction<BinaryDomain>>> endSum,
 			Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> inc, JitIcfg icfg) {
 		this.jumpFunctions = jumpFunctions;
 		this.endSum = endSum;
 		this.inc = inc;
 		this.icfg = icfg;
+		// Tasks run on their own classify their statements themselves
+		if (sourceSinks == null)
+			sourceSinks = new SourceSinkClassification(app, icfg);
 	}
 
-	public void setReporter(Reporter reporter) {
+	public void setReporter(AbstractReporter reporter) {
 		this.reporter = reporter;
 	}
 
+	public void setLibrarySummaries(LibrarySummaryStore librarySummaries) {
+		this.librarySummaries = librarySummaries;
+	}
+
+	public void setStatistics(TaskStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	public void setCancellationToken(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	public void setSourceSinkClassification(SourceSinkClassification sourceSinks) {
+		this.sourceSinks = sourceSinks;
+	}
+
+	public void setTypeResolver(RapidTypeResolver typeResolver) {
+		this.typeResolver = typeResolver;
+	}
+
+	public void setProjectOverrides(ProjectOverrides projectOverrides) {
+		this.projectOverrides = projectOverrides;
+	}
+
+	public void setSolverThreads(int solverThreads) {
+		this.solverThreads = solverThreads;
+	}
+
+	public Task getTask() {
+		return task;
+	}
+
 	/***** Tasks *****/
 
 	// What is needed for the given starting class and statement?
@@ -109,7 +154,8 @@ public abstract class AnalysisTask {
 
 		Set<Task> newTasks = new HashSet<Task>();
 
-		Set<SootMethod> chaTargets = icfg.unitToCallees.getUnchecked(call);
+		// A copy: the cached targets are shared by the tasks of a batch
+		Set<SootMethod> chaTargets = new HashSet<SootMethod>(icfg.unitToCallees.getUnchecked(call));
 
 		for (Iterator<SootMethod> iterator = chaTargets.iterator(); iterator.hasNext();) {
 			SootMethod potentialTarget = iterator.next();
@@ -122,38 +168,52 @@ public abstract class AnalysisTask {
 
 		for (Layer l : Layer.values()) {
 			AnalysisTask al = Layer.getAnalysisLayer(l, task, app, projectInformation);
+			// Statements are classified once for the run, not per helper
+			al.setSourceSinkClassification(sourceSinks);
 			al.setAnalysisInfo(jumpFunctions, endSum, inc, icfg);
-			Set<Task> tasks = al.createTasksForCall(call, chaTargets);
+			Set<Task> tasks = al.createTasksForCall(call, targetsFor(l, call, chaTargets));
 			newTasks.addAll(tasks);
 		}
 		return newTasks;
 	}
 
+	// Targets of project layers are restricted to instantiated receivers
+	private Set<SootMethod> targetsFor(Layer layer, Unit call, Set<SootMethod> targets) {
+		if (typeResolver == null || (layer != Layer.PROJECT_MONOMORPHIC && layer != Layer.PROJECT_POLYMORPHIC))
+			return targets;
+		return typeResolver.refine(call, icfg.getMethodOf(call), targets);
+	}
+
 	/***** Class loading *****/
 
+	// Under the Scene lock, shared with the prefetcher's loader thread
 	protected SootClass loadClass(String className) {
-
-		if (!Scene.v().containsType(className)
-				|| Scene.v().getSootClass(className).resolvingLevel() < SootClass.BODIES) {
-			try {
-				Scene.v().loadClassAndSupport(className);
-			} catch (Exception e) {
-				LOGGER.error("Soot class not found " + className);
-				e.printStackTrace();
+		synchronized (Scene.v()) {
+			if (!Scene.v().containsType(className)
+					|| Scene.v().getSootClass(className).resolvingLevel() < SootClass.BODIES) {
+				try {
+					Scene.v().loadClassAndSupport(className);
+				} catch (Exception e) {
+					LOGGER.error("Soot class not found " + className);
+					e.printStackTrace();
+				}
 			}
+			return Scene.v().getSootClass(className);
 		}
-		return Scene.v().getSootClass(className);
 	}
 
 	protected Body loadActiveBody(SootMethod sm) {
 		String className = sm.getDeclaringClass().getName();
 		loadClass(className);
-		if (!sm.hasActiveBody()) {
-			Body b = sm.retrieveActiveBody();
-			Scene.v().getOrMakeFastHierarchy();
-			return b;
+		synchronized (Scene.v()) {
+			if (!sm.hasActiveBody()) {
+				Body b = sm.retrieveActiveBody();
+				if (!Config.incrementalHierarchy)
+					Scene.v().getOrMakeFastHierarchy();
+				return b;
+			}
+			return sm.getActiveBody();
 		}
-		return sm.getActiveBody();
 	}
 
 	/***** Project information *****/
@@ -180,14 +240,26 @@ public abstract class AnalysisTask {
 
 	protected Set<SootClass> classesInSameFile(SootClass declaringClass) {
 		Set<SootClass> classesInSameFile = new HashSet<SootClass>();
-		// classes in the same file have necessarily been loaded before
-		for (SootClass sc : Scene.v().getClasses()) {
+		// classes in the same file have necessarily been loaded before.
+		// The prefetcher's loader thread appends to the chain under the lock
+		List<SootClass> classes;
+		synchronized (Scene.v()) {
+			classes = new ArrayList<SootClass>(Scene.v().getClasses());
+		}
+		for (SootClass sc : classes) {
 			if (inSameFile(sc, declaringClass))
 				classesInSameFile.add(sc);
 		}
 		return classesInSameFile;
 	}
 
+	// Copied under the Scene lock, the loader thread may be resolving the class
+	protected List<SootMethod> methodsOf(SootClass sc) {
+		synchronized (Scene.v()) {
+			return new ArrayList<SootMethod>(sc.getMethods());
+		}
+	}
+
 	protected Set<SootClass> classesInSamePackage(SootClass bsc) {
 		Set<SootClass> res = new HashSet<SootClass>();
 		// need to explicitly load all classes in package
@@ -202,6 +274,8 @@ public abstract class AnalysisTask {
 		// need to explicitly load all classes in project
 		for (String className : projectInformation.projectClasses())
 			res.add(loadClass(className));
+		if (typeResolver != null)
+			typeResolver.projectLoaded();
 		return res;
 	}
 
@@ -209,14 +283,15 @@ public abstract class AnalysisTask {
 
 	protected Set<SootMethod> calleesOfCallAt(Unit u) {
 		if (task.getStartUnit() == u)
-			return task.getTargets();
+			return targetsFor(task.getLayer(), u, task.getTargets());
 		return new HashSet<SootMethod>();
 	}
 
 	public void analyze() {
 		icfg.initForMethod(task.getStartMethod());
-		InterproceduralAnalysisProblem problem = new InterproceduralAnalysisProblem(icfg);
-		IFDSSolver<Unit, FlowAbstraction, SootMethod, JitIcfg> solver = new IFDSSolver<Unit, FlowAbstraction, SootMethod, JitIcfg>(
+		final AccessPathLimit apLimit = Config.adaptiveApLength ? new AccessPathLimit(task, statistics) : null;
+		InterproceduralAnalysisProblem problem = new InterproceduralAnalysisProblem(new TaskIcfg(icfg, this));
+		IFDSSolver<Unit, FlowAbstraction, SootMethod, InterproceduralCFG<Unit, SootMethod>> solver = new IFDSSolver<Unit, FlowAbstraction, SootMethod, InterproceduralCFG<Unit, SootMethod>>(
 				problem, jumpFunctions, endSum, inc) {
 
 			// FlowTwist -> PropagateAndMerge
@@ -225,6 +300,16 @@ public abstract class AnalysisTask {
 					EdgeFunction<IFDSSolver.BinaryDomain> f, Unit relatedCallSite, boolean isUnbalancedReturn,
 					boolean force) {
 
+				// Preempted run: drop the edge, the worklist drains without new work
+				if (cancellation != null && cancellation.isCancelled())
+					return;
+
+				if (statistics != null)
+					statistics.propagated();
+
+				if (apLimit != null)
+					targetVal = apLimit.limit(targetVal);
+
 				// Report leaks from summaries
 				Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks = jumpFn.summaryPathsLookup(sourceVal,
 						target);
@@ -235,25 +320,30 @@ public abstract class AnalysisTask {
 					reporter.report(sourceVal, summaryLeaks);
 				}
 
-				// Set neighbours
+				// Set neighbours: a fact of the same shape, but not exact
 				FlowAbstraction neighbour = null;
-				Set<FlowAbstraction> similarTargets = jumpFn.forwardLookup(sourceVal, target).keySet();
-				for (FlowAbstraction fa : similarTargets) {
-					// If the values are similar, but not exact
-					if (!targetVal.equals(FlowAbstraction.zeroAbstraction()) && targetVal.getUnit() != target
-							&& !fa.exactEquals(targetVal) && fa.getShortName().equals(targetVal.getShortName())) {
-						fa.addNeighbour(targetVal);
-						neighbour = fa;
+				if (!targetVal.equals(FlowAbstraction.zeroAbstraction()) && targetVal.getUnit() != target) {
+					neighbour = jumpFunctions.neighbourOf(sourceVal, target, targetVal);
+					if (neighbour != null) {
+						neighbour.addNeighbour(targetVal);
 						if (DEBUG_NEIGHBOURS)
-							LOGGER.debug("Initiate Neighbour " + targetVal + ":" + targetVal.getUnit() + " TO " + fa
-									+ ":" + fa.getUnit() + " AT " + target + " METHOD " + icfg.getMethodOf(target));
-						break;
+							LOGGER.debug("Initiate Neighbour " + targetVal + ":" + targetVal.getUnit() + " TO "
+									+ neighbour + ":" + neighbour.getUnit() + " AT " + target + " METHOD "
+									+ icfg.getMethodOf(target));
 					}
 				}
-				if (neighbour == null)
-					propagateAfterMerge(sourceVal, target, targetVal, f, relatedCallSite, isUnbalancedReturn, force);
-				else
-					propagateAfterMerge(sourceVal, target, neighbour, f, relatedCallSite, isUnbalancedReturn, force);
+				FlowAbstraction fact = neighbour == null ? targetVal : neighbour;
+
+				// New edges of this task, the store is shared with other tasks
+				boolean newEdge = (apLimit != null || statistics != null)
+						&& !jumpFunctions.containsFunction(sourceVal, target, fact);
+				propagateAfterMerge(sourceVal, target, fact, f, relatedCallSite, isUnbalancedReturn, force);
+				if (newEdge) {
+					if (apLimit != null)
+						apLimit.edgeAdded();
+					if (statistics != null)
+						statistics.edgeAdded();
+				}
 
 			}
 		};
@@ -262,15 +352,20 @@ public abstract class AnalysisTask {
 
 	// IFDS Problem
 	protected class InterproceduralAnalysisProblem
-			extends DefaultJimpleIFDSTabulationProblem<FlowAbstraction, JitIcfg> {
+			extends DefaultJimpleIFDSTabulationProblem<FlowAbstraction, InterproceduralCFG<Unit, SootMethod>> {
 
-		public InterproceduralAnalysisProblem(JitIcfg icfg) {
+		public InterproceduralAnalysisProblem(InterproceduralCFG<Unit, SootMethod> icfg) {
 			super(icfg);
 		}
 
+		@Override
+		public int numThreads() {
+			return solverThreads > 0 ? solverThreads : super.numThreads();
+		}
+
 		@Override
 		public FlowFunctions<Unit, FlowAbstraction, SootMethod> createFlowFunctionsFactory() {
-			return new FlowFunctions<Unit, FlowAbstraction, SootMethod>() {
+			return new MemoizedFlowFunctions(new FlowFunctions<Unit, FlowAbstraction, SootMethod>() {
 
 				@Override
 				public FlowFunction<FlowAbstraction> getNormalFlowFunction(Unit src, Unit dest) {
@@ -300,7 +395,7 @@ public abstract class AnalysisTask {
 						LOGGER.info("cot " + call + " --- " + interproceduralCFG().getMethodOf(call));
 					return doCallToReturnFlowFunction(call, returnSite);
 				}
-			};
+			});
 		}
 
 		@Override
@@ -316,7 +411,8 @@ public abstract class AnalysisTask {
 				SootMethod method = task.getStartMethod();
 				unit = method.getActiveBody().getUnits().getFirst();
 			}
-			Set<FlowAbstraction> abs = task.getInFacts();
+			// Copy, the in-facts are part of the task's identity
+			Set<FlowAbstraction> abs = new HashSet<FlowAbstraction>(task.getInFacts());
 			abs.add(zeroValue());
 			res.put(unit, abs);
 			return res;
@@ -463,7 +559,7 @@ public abstract class AnalysisTask {
 					outSet.addAll(taintAliases(fa));
 				}
 				// Map the parameters
-				else if (source.getFields() != null && paramLocals.contains(source.getLocal())) {
+				else if (source.getAccessPath() != null && paramLocals.contains(source.getLocal())) {
 					int paramIdx = paramLocals.indexOf(source.getLocal());
 					if (!(invExpr.getArg(paramIdx) instanceof Constant)) {
 						FlowAbstraction fa = source.deriveWithNewLocal((Local) invExpr.getArg(paramIdx), callSite,
@@ -494,8 +590,8 @@ public abstract class AnalysisTask {
 		/***** SOURCE OR SINK *****/
 
 		if (stmt.containsInvokeExpr()) {
-			final boolean isSink = app.getSourceSinkManager().isSink((Stmt) call, icfg, null);
-			final boolean isSource = (app.getSourceSinkManager().getSourceInfo((Stmt) call, icfg) != null);
+			final boolean isSink = sourceSinks.isSink(stmt);
+			final boolean isSource = sourceSinks.isSource(stmt);
 
 			if (isSource || isSink) {
 				return new FlowFunction<FlowAbstraction>() {
@@ -513,7 +609,7 @@ public abstract class AnalysisTask {
 							if (source.equals(FlowAbstraction.zeroAbstraction())) {
 								DefinitionStmt defStmt = (DefinitionStmt) stmt;
 								Local leftLocal = (Local) defStmt.getLeftOp();
-								FlowAbstraction fa = new FlowAbstraction(defStmt, leftLocal, call,
+								FlowAbstraction fa = FlowAbstraction.create(defStmt, leftLocal, call,
 										icfg.getMethodOf(call), FlowAbstraction.zeroAbstraction());
 								outSet.add(fa);
 								outSet.addAll(taintAliases(fa));
@@ -567,6 +663,12 @@ public abstract class AnalysisTask {
 
 			if (!stmt.equals(task.getStartUnit()) && !isSource && !isSink) {
 
+				// Library call summarized in a previous run: no targets to
+				// resolve, no tasks to create
+				MethodSummary summary = librarySummary(stmt);
+				if (summary != null)
+					return doLibraryFlowFunction(call, summary);
+
 				final Set<Task> newTasks = createTasks(call);
 
 				if (!newTasks.isEmpty()) { // Has new tasks
@@ -623,6 +725,7 @@ public abstract class AnalysisTask {
 					};
 				} else {
 
+					summarizeLibraryCall(stmt);
 					return new FlowFunction<FlowAbstraction>() {
 
 						@Override
@@ -676,7 +779,7 @@ public abstract class AnalysisTask {
 				if (call instanceof AssignStmt) {
 					AssignStmt assignStmt = (AssignStmt) call;
 					final Local leftLocal = (Local) assignStmt.getLeftOp();
-					FlowAbstraction fa = new FlowAbstraction(assignStmt, leftLocal, call, icfg.getMethodOf(call),
+					FlowAbstraction fa = FlowAbstraction.create(assignStmt, leftLocal, call, icfg.getMethodOf(call),
 							FlowAbstraction.zeroAbstraction());
 					if (newAbs.equals(fa))
 						overwritten = true;
@@ -693,6 +796,129 @@ public abstract class AnalysisTask {
 		};
 	}
 
+	// Same as the API case of the call-to-return flow, with the flows of the
+	// library summary in place of taintApi
+	protected FlowFunction<FlowAbstraction> doLibraryFlowFunction(final Unit call, final MethodSummary summary) {
+
+		final Stmt stmt = (Stmt) call;
+		final Map<Integer, Value> slots = slotsOf(stmt);
+
+		return new FlowFunction<FlowAbstraction>() {
+
+			@Override
+			public Set<FlowAbstraction> computeTargets(FlowAbstraction source) {
+				Set<FlowAbstraction> outSet = new HashSet<FlowAbstraction>();
+
+				if (!applySanitizer(call, source)) {
+					outSet.add(source.deriveWithNewStmt(stmt, icfg.getMethodOf(stmt)));
+					for (FlowAbstraction fa : applyLibrarySummary(call, slots, summary, source)) {
+						outSet.add(fa);
+						outSet.addAll(taintAliases(fa));
+					}
+				}
+
+				if (DEBUG_IFDS_RESULTS)
+					printDebugIFDSInfo("cot (lib)", call, source, outSet);
+				return outSet;
+			}
+		};
+	}
+
+	/***** Library summaries *****/
+
+	private MethodSummary librarySummary(Stmt stmt) {
+		if (librarySummaries == null)
+			return null;
+		SootMethod callee = stmt.getInvokeExpr().getMethod();
+		if (inProject(callee.getDeclaringClass().getName()))
+			return null;
+		MethodSummary summary = librarySummaries.get(callee);
+		if (summary == null || !summary.covers(inSlotsOf(stmt)))
+			return null;
+
+		// A target in the package of the start point would be a package task
+		String startPackage = projectInformation.startPoint().getDeclaringClass().getJavaPackageName();
+		for (String target : summary.getTargets()) {
+			String targetClass = target.substring(1, target.indexOf(":"));
+			int dot = targetClass.lastIndexOf('.');
+			if ((dot < 0 ? "" : targetClass.substring(0, dot)).equals(startPackage))
+				return null;
+		}
+		if (projectOverrides == null || projectOverrides.overrides(callee))
+			return null;
+		return summary;
+	}
+
+	// Record the flows of taintApi for each local passed to a library call
+	// which created no task
+	private void summarizeLibraryCall(Stmt stmt) {
+		if (librarySummaries == null)
+			return;
+		SootMethod callee = stmt.getInvokeExpr().getMethod();
+		if (inProject(callee.getDeclaringClass().getName()))
+			return;
+		Map<Integer, Value> slots = slotsOf(stmt);
+		// Flows can only be told apart with distinct locals
+		Value base = slots.get(MethodSummary.BASE);
+		if (new HashSet<Value>(slots.values()).size() < slots.size()
+				|| (base != null && base.toString().equals("this")))
+			return;
+
+		MethodSummary summary = new MethodSummary();
+		for (int inSlot : inSlotsOf(stmt)) {
+			summary.addSlot(inSlot);
+			FlowAbstraction probe = FlowAbstraction.v(stmt, slots.get(inSlot), stmt, icfg.getMethodOf(stmt),
+					FlowAbstraction.zeroAbstraction());
+			for (FlowAbstraction fa : taintApi(stmt, probe, new HashSet<FlowAbstraction>()))
+				for (Entry<Integer, Value> slot : slots.entrySet())
+					if (slot.getValue() == fa.getLocal())
+						summary.addFlow(inSlot, slot.getKey());
+		}
+		for (SootMethod target : icfg.unitToCallees.getUnchecked(stmt))
+			if (!inProject(target.getDeclaringClass().getName()))
+				summary.addTarget(target);
+		librarySummaries.put(callee, summary);
+	}
+
+	private Set<FlowAbstraction> applyLibrarySummary(Unit call, Map<Integer, Value> slots, MethodSummary summary,
+			FlowAbstraction source) {
+		Set<FlowAbstraction> ret = new HashSet<FlowAbstraction>();
+		if (source.getLocal() == null)
+			return ret;
+		for (Entry<Integer, Value> inSlot : slots.entrySet()) {
+			if (inSlot.getKey() == MethodSummary.RETURN || inSlot.getValue() != source.getLocal())
+				continue;
+			for (int outSlot : summary.flowsFrom(inSlot.getKey())) {
+				Value target = slots.get(outSlot);
+				// As in taintApiDefault, "this" is never tainted by a call
+				if (target == null || (outSlot == MethodSummary.BASE && target.toString().equals("this")))
+					continue;
+				ret.add(FlowAbstraction.v(source.getSource(), target, call, icfg.getMethodOf(call), source));
+			}
+		}
+		return ret;
+	}
+
+	// Locals of a call by slot: base object, arguments and assigned local
+	private Map<Integer, Value> slotsOf(Stmt stmt) {
+		Map<Integer, Value> slots = new HashMap<Integer, Value>();
+		InvokeExpr ie = stmt.getInvokeExpr();
+		if (ie instanceof InstanceInvokeExpr)
+			slots.put(MethodSummary.BASE, ((InstanceInvokeExpr) ie).getBase());
+		for (int i = 0; i < ie.getArgCount(); i++)
+			if (ie.getArg(i) instanceof Local)
+				slots.put(i, ie.getArg(i));
+		if (stmt instanceof AssignStmt)
+			slots.put(MethodSummary.RETURN, ((AssignStmt) stmt).getLeftOp());
+		return slots;
+	}
+
+	private Set<Integer> inSlotsOf(Stmt stmt) {
+		Set<Integer> inSlots = new HashSet<Integer>(slotsOf(stmt).keySet());
+		inSlots.remove(MethodSummary.RETURN);
+		return inSlots;
+	}
+
 	/***** Aliases *****/
 
 	private Set<FlowAbstraction> taintAliases(FlowAbstraction fa) {
@@ -736,7 +962,7 @@ public abstract class AnalysisTask {
 
 		if (right instanceof Local && source.getLocal() == right) {
 			fa = FlowAbstraction.v(source.getSource(), left, src, icfg.getMethodOf(src), source);
-			fa = fa.append(source.getFields());
+			fa = fa.append(source.getAccessPath());
 		} else if (right instanceof InstanceFieldRef) {
 			InstanceFieldRef ifr = (InstanceFieldRef) right;
 			if (source.hasPrefix(ifr)) {
@@ -764,7 +990,7 @@ public abstract class AnalysisTask {
 			ret.add(fa);
 
 		// f0 = o.x {o} -> taint f0 and o.x if o is API object
-		if (right instanceof InstanceFieldRef && source.getLocal() != null && source.getFields().length == 0) {
+		if (right instanceof InstanceFieldRef && source.getLocal() != null && source.getAccessPath().isEmpty()) {
 			String type = ((InstanceFieldRef) right).getBase().getType().toString();
 			// if o is an API object (ex: Point)
 			if (!inProject(type)) {
@@ -0,0 +1,28 @@
+package layeredtaintplugin.internal;
+
+/**
+ * Set when the run it belongs to is preempted by a newer one. The analysis
+ * checks it between tasks and on every propagation, and stops with the
+ * results found so far.
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled = false;
+	private volatile long cancelTime = 0;
+
+	public void cancel() {
+		if (!cancelled) {
+			cancelTime = System.nanoTime();
+			cancelled = true;
+		}
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	// Nanoseconds since the run was cancelled, 0 if it was not
+	public long timeSinceCancel() {
+		return cancelled ? System.nanoTime() - cancelTime : 0;
+	}
+}
@@ -0,0 +1,329 @@
+package layeredtaintplugin.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Table.Cell;
+import com.google.common.collect.Tables;
+
+import heros.EdgeFunction;
+
+/**
+ * Jump functions stored per target node in primitive tables
+ * (Config.compactJumpFunctions). Facts are identified by the number of their
+ * key, an edge by the two numbers packed in a long, and the edge function by
+ * a small code; the fact objects are only kept once per edge, as the solver
+ * needs them back. Edges are also chained by source fact and target shape,
+ * for neighbour lookup. This replaces the three nested Guava tables of
+ * JumpFunctions, whose entry and boxing overhead dominates large summaries.
+ * Path summaries stay in the inherited table. The rows of endSum and inc
+ * are FactMaps as well (see IncrementalSummaries).
+ */
+public class CompactJumpFunctions<N, L> extends IncrementalJumpFunctions<N, L> {
+
+	private static final byte REMOVED = -1;
+
+	private final EdgeFunction<L> allTop;
+	// Edge functions by code, IFDS only uses a couple of them
+	private final List<EdgeFunction<L>> functions = new ArrayList<EdgeFunction<L>>();
+
+	private final Map<N, Edges> edgesByTarget = new HashMap<N, Edges>();
+
+	public CompactJumpFunctions(EdgeFunction<L> allTop) {
+		super(allTop);
+		this.allTop = allTop;
+	}
+
+	/***** JumpFunctions *****/
+
+	@Override
+	public synchronized void addFunction(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal,
+			EdgeFunction<L> function) {
+		if (function.equalTo(allTop))
+			return;
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		if (edges == null) {
+			edges = new Edges();
+			edgesByTarget.put(target, edges);
+		}
+		edges.add(sourceVal, targetVal, code(function));
+	}
+
+	@Override
+	public synchronized boolean removeFunction(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal) {
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		if (edges == null || !edges.remove(sourceVal, targetVal))
+			return false;
+		// Removed entries stay in the chains, until they are the majority
+		if (edges.live == 0)
+			edgesByTarget.remove(target);
+		else if (edges.live * 2 < edges.size)
+			edgesByTarget.put(target, edges.compact());
+		return true;
+	}
+
+	// Targets reached from sourceVal at target, in insertion order
+	@Override
+	public synchronized Map<FlowAbstraction, EdgeFunction<L>> forwardLookup(FlowAbstraction sourceVal, N target) {
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		if (edges == null)
+			return Collections.emptyMap();
+		Map<FlowAbstraction, EdgeFunction<L>> res = new LinkedHashMap<FlowAbstraction, EdgeFunction<L>>();
+		for (int entry : edges.bySource(sourceVal))
+			res.put(edges.targets[entry], functions.get(edges.functions[entry]));
+		return res;
+	}
+
+	// Sources reaching targetVal at target, in insertion order
+	@Override
+	public synchronized Map<FlowAbstraction, EdgeFunction<L>> reverseLookup(N target, FlowAbstraction targetVal) {
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		if (edges == null)
+			return Collections.emptyMap();
+		Map<FlowAbstraction, EdgeFunction<L>> res = new LinkedHashMap<FlowAbstraction, EdgeFunction<L>>();
+		for (int entry : edges.byTarget(targetVal))
+			res.put(edges.sources[entry], functions.get(edges.functions[entry]));
+		return res;
+	}
+
+	@Override
+	public synchronized Set<Cell<FlowAbstraction, FlowAbstraction, EdgeFunction<L>>> lookupByTarget(N target) {
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		if (edges == null)
+			return Collections.emptySet();
+		Set<Cell<FlowAbstraction, FlowAbstraction, EdgeFunction<L>>> res = new LinkedHashSet<Cell<FlowAbstraction, FlowAbstraction, EdgeFunction<L>>>();
+		for (int entry = 0; entry < edges.size; entry++)
+			if (edges.functions[entry] != REMOVED)
+				res.add(Tables.immutableCell(edges.sources[entry], edges.targets[entry],
+						functions.get(edges.functions[entry])));
+		return res;
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		edgesByTarget.clear();
+	}
+
+	/***** IncrementalJumpFunctions *****/
+
+	@Override
+	public synchronized boolean containsFunction(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal) {
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		return edges != null && edges.contains(sourceVal, targetVal);
+	}
+
+	@Override
+	public synchronized FlowAbstraction neighbourOf(FlowAbstraction sourceVal, N target,
+			FlowAbstraction targetVal) {
+		access(target);
+		Edges edges = edgesByTarget.get(target);
+		if (edges == null)
+			return null;
+		for (int entry : edges.bySourceAndShape(sourceVal, targetVal))
+			if (!edges.targets[entry].exactEquals(targetVal))
+				return edges.targets[entry];
+		return null;
+	}
+
+	@Override
+	public synchronized void removeTarget(N target) {
+		edgesByTarget.remove(target);
+		summaryPaths.column(target).clear();
+	}
+
+	@Override
+	public synchronized int size() {
+		int size = 0;
+		for (Edges edges : edgesByTarget.values())
+			size += edges.live;
+		return size;
+	}
+
+	/***** Storage *****/
+
+	// Called before the edges of target are read or written
+	protected void access(N target) {
+	}
+
+	// Writes the edges of target, with facts as provenance log ids, and drops
+	// them from memory. Returns the number of edges written.
+	protected int writeEdges(N target, DataOutput out) throws IOException {
+		Edges edges = edgesByTarget.remove(target);
+		if (edges == null) {
+			out.writeInt(0);
+			return 0;
+		}
+		ProvenanceLog log = ProvenanceLog.v();
+		out.writeInt(edges.live);
+		for (int entry = 0; entry < edges.size; entry++) {
+			if (edges.functions[entry] == REMOVED)
+				continue;
+			out.writeLong(log.idOf(edges.sources[entry]));
+			out.writeLong(log.idOf(edges.targets[entry]));
+			out.writeByte(edges.functions[entry]);
+		}
+		return edges.live;
+	}
+
+	// Reads back the edges written by writeEdges, in their original order
+	protected void readEdges(N target, DataInput in) throws IOException {
+		ProvenanceLog log = ProvenanceLog.v();
+		int count = in.readInt();
+		if (count == 0)
+			return;
+		Edges edges = new Edges();
+		for (int i = 0; i < count; i++) {
+			FlowAbstraction sourceVal = log.read(in.readLong());
+			FlowAbstraction targetVal = log.read(in.readLong());
+			edges.add(sourceVal, targetVal, in.readByte());
+		}
+		edgesByTarget.put(target, edges);
+	}
+
+	/***** Codes *****/
+
+	private byte code(EdgeFunction<L> function) {
+		for (int i = 0; i < functions.size(); i++)
+			if (functions.get(i).equalTo(function))
+				return (byte) i;
+		if (functions.size() > Byte.MAX_VALUE)
+			throw new IllegalStateException("Too many distinct edge functions for compact jump functions");
+		functions.add(function);
+		return (byte) (functions.size() - 1);
+	}
+
+	private static long pair(int sourceNumber, int targetNumber) {
+		return ((long) sourceNumber << 32) | (targetNumber & 0xFFFFFFFFL);
+	}
+
+	/***** Edges of one target node *****/
+
+	// Entries are appended; the entries of a source fact, of a target fact
+	// and of a source fact and target shape are chained from the newest
+	private static class Edges {
+
+		private final LongIntMap byPair = new LongIntMap();
+		private final LongIntMap firstBySource = new LongIntMap();
+		private final LongIntMap firstByTarget = new LongIntMap();
+		private final LongIntMap firstBySourceAndShape = new LongIntMap();
+
+		private FlowAbstraction[] sources = new FlowAbstraction[2];
+		private FlowAbstraction[] targets = new FlowAbstraction[2];
+		private byte[] functions = new byte[2];
+		private int[] nextBySource = new int[2];
+		private int[] nextByTarget = new int[2];
+		private int[] nextBySourceAndShape = new int[2];
+		private int size = 0;
+		private int live = 0;
+
+		private void add(FlowAbstraction sourceVal, FlowAbstraction targetVal, byte function) {
+			int sourceNumber = sourceVal.getKey().number();
+			int targetNumber = targetVal.getKey().number();
+			long pair = pair(sourceNumber, targetNumber);
+			int entry = byPair.get(pair);
+			if (entry != LongIntMap.MISSING) {
+				// As in a map, the first facts stay and the function is replaced
+				if (functions[entry] == REMOVED) {
+					sources[entry] = sourceVal;
+					targets[entry] = targetVal;
+					live++;
+				}
+				functions[entry] = function;
+				return;
+			}
+
+			if (size == sources.length)
+				grow();
+			entry = size++;
+			sources[entry] = sourceVal;
+			targets[entry] = targetVal;
+			functions[entry] = function;
+			nextBySource[entry] = firstBySource.get(sourceNumber);
+			nextByTarget[entry] = firstByTarget.get(targetNumber);
+			long sourceAndShape = pair(sourceNumber, targetVal.getKey().shape().number());
+			nextBySourceAndShape[entry] = firstBySourceAndShape.get(sourceAndShape);
+			firstBySource.put(sourceNumber, entry);
+			firstByTarget.put(targetNumber, entry);
+			firstBySourceAndShape.put(sourceAndShape, entry);
+			byPair.put(pair, entry);
+			live++;
+		}
+
+		private boolean contains(FlowAbstraction sourceVal, FlowAbstraction targetVal) {
+			int entry = byPair.get(pair(sourceVal.getKey().number(), targetVal.getKey().number()));
+			return entry != LongIntMap.MISSING && functions[entry] != REMOVED;
+		}
+
+		// Entries are kept, so that the chains stay intact
+		private boolean remove(FlowAbstraction sourceVal, FlowAbstraction targetVal) {
+			int entry = byPair.get(pair(sourceVal.getKey().number(), targetVal.getKey().number()));
+			if (entry == LongIntMap.MISSING || functions[entry] == REMOVED)
+				return false;
+			functions[entry] = REMOVED;
+			live--;
+			return true;
+		}
+
+		// Live entries only, in the same order
+		private Edges compact() {
+			Edges res = new Edges();
+			for (int entry = 0; entry < size; entry++)
+				if (functions[entry] != REMOVED)
+					res.add(sources[entry], targets[entry], functions[entry]);
+			return res;
+		}
+
+		private int[] bySource(FlowAbstraction sourceVal) {
+			return chain(firstBySource.get(sourceVal.getKey().number()), nextBySource);
+		}
+
+		private int[] byTarget(FlowAbstraction targetVal) {
+			return chain(firstByTarget.get(targetVal.getKey().number()), nextByTarget);
+		}
+
+		private int[] bySourceAndShape(FlowAbstraction sourceVal, FlowAbstraction targetVal) {
+			long sourceAndShape = pair(sourceVal.getKey().number(), targetVal.getKey().shape().number());
+			return chain(firstBySourceAndShape.get(sourceAndShape), nextBySourceAndShape);
+		}
+
+		// Live entries of a chain, oldest first
+		private int[] chain(int first, int[] next) {
+			int count = 0;
+			for (int entry = first; entry != LongIntMap.MISSING; entry = next[entry])
+				if (functions[entry] != REMOVED)
+					count++;
+			int[] res = new int[count];
+			for (int entry = first; entry != LongIntMap.MISSING; entry = next[entry])
+				if (functions[entry] != REMOVED)
+					res[--count] = entry;
+			return res;
+		}
+
+		private void grow() {
+			int capacity = sources.length * 2;
+			sources = Arrays.copyOf(sources, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			functions = Arrays.copyOf(functions, capacity);
+			nextBySource = Arrays.copyOf(nextBySource, capacity);
+			nextByTarget = Arrays.copyOf(nextByTarget, capacity);
+			nextBySourceAndShape = Arrays.copyOf(nextBySourceAndShape, capacity);
+		}
+	}
+}
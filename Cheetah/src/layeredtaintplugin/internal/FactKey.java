@@ -0,0 +1,139 @@
+package layeredtaintplugin.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import soot.Local;
+import soot.SootField;
+import soot.Unit;
+
+/**
+ * The part of a FlowAbstraction that decides equality: local, access path
+ * and statement. Keys are interned, so equal facts share one key and
+ * compare by identity; the hash code is computed once.
+ */
+public final class FactKey {
+
+	// Weak: keys go away with the facts (and the scene) that use them
+	private static final Interner<FactKey> INTERNER = Interners.newWeakInterner();
+
+	private static final FactKey ZERO = new FactKey(null, AccessPath.empty(), null);
+
+	private static final AtomicInteger NEXT_NUMBER = new AtomicInteger();
+
+	private final Local local;
+	private final AccessPath fields;
+	private final Unit unit;
+	private final int hash;
+	// Dense number, assigned on first use so that discarded candidates of
+	// the interner do not take one
+	private volatile int number = -1;
+	// Same local and path, without the statement
+	private volatile FactKey shape = null;
+
+	private FactKey(Local local, AccessPath fields, Unit unit) {
+		this.local = local;
+		this.fields = fields;
+		this.unit = unit;
+		this.hash = computeHash();
+	}
+
+	public static FactKey v(Local local, AccessPath fields, Unit unit) {
+		if (local == null && fields.isEmpty())
+			return ZERO;
+		return INTERNER.intern(new FactKey(local, fields, unit));
+	}
+
+	public static FactKey zero() {
+		return ZERO;
+	}
+
+	public Local getLocal() {
+		return local;
+	}
+
+	public AccessPath getAccessPath() {
+		return fields;
+	}
+
+	public Unit getUnit() {
+		return unit;
+	}
+
+	// Facts of the same shape are neighbours if they meet at a statement
+	public FactKey shape() {
+		if (unit == null)
+			return this;
+		FactKey res = shape;
+		if (res == null) {
+			res = v(local, fields, null);
+			shape = res;
+		}
+		return res;
+	}
+
+	public int number() {
+		int res = number;
+		if (res < 0) {
+			synchronized (this) {
+				if (number < 0)
+					number = NEXT_NUMBER.getAndIncrement();
+				res = number;
+			}
+		}
+		return res;
+	}
+
+	/***** Utils *****/
+
+	private int computeHash() {
+		if (this.local == null && this.fields.isEmpty())
+			return 0;
+
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + fields.hashCode();
+		result = prime * result + ((local == null) ? 0 : local.hashCode());
+		result = prime * result + ((unit == null) ? 0 : unit.hashCode());
+		if (local == null) {
+			SootField firstField = fields.getFirst();
+			result = prime * result + firstField.getDeclaringClass().hashCode();
+		}
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	// Only used by the interner, facts compare keys by identity
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof FactKey))
+			return false;
+		FactKey other = (FactKey) obj;
+		if (hash != other.hash)
+			return false;
+		// Paths are interned too
+		if (fields != other.fields)
+			return false;
+		if (local == null) {
+			if (other.local != null)
+				return false;
+			else if (!fields.getFirst().getDeclaringClass().equals(other.fields.getFirst().getDeclaringClass()))
+				return false;
+		} else if (!local.equals(other.local))
+			return false;
+		if (unit == null) {
+			if (other.unit != null)
+				return false;
+		} else if (!unit.equals(other.unit))
+			return false;
+		return true;
+	}
+}
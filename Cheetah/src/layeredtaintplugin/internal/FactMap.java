@@ -0,0 +1,199 @@
+package layeredtaintplugin.internal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Table;
+import com.google.common.collect.Tables;
+
+/**
+ * Map from facts to values over the number of their key, in insertion
+ * order, for the rows of the solver tables (endSum, inc) with
+ * Config.compactJumpFunctions. Facts are equal when their keys are, so the
+ * number identifies them; the first fact put for a key stays, as in a map.
+ * Removed entries leave a hole until more than half of them are holes.
+ * Not thread-safe.
+ */
+final class FactMap<V> extends AbstractMap<FlowAbstraction, V> {
+
+	private final LongIntMap index = new LongIntMap();
+	private FlowAbstraction[] facts = new FlowAbstraction[2];
+	private Object[] values = new Object[2];
+	private int size = 0;
+	private int live = 0;
+
+	// Table with FactMap rows, as HashBasedTable.create()
+	static <R, V> Table<R, FlowAbstraction, V> table() {
+		return Tables.newCustomTable(new HashMap<R, Map<FlowAbstraction, V>>(),
+				new Supplier<Map<FlowAbstraction, V>>() {
+					@Override
+					public Map<FlowAbstraction, V> get() {
+						return new FactMap<V>();
+					}
+				});
+	}
+
+	/***** Map *****/
+
+	@Override
+	public int size() {
+		return live;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return slotOf(key) != LongIntMap.MISSING;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int slot = slotOf(key);
+		return slot == LongIntMap.MISSING ? null : (V) values[slot];
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V put(FlowAbstraction key, V value) {
+		int slot = index.get(key.getKey().number());
+		if (slot != LongIntMap.MISSING) {
+			V previous = (V) values[slot];
+			if (facts[slot] == null) {
+				facts[slot] = key;
+				live++;
+			}
+			values[slot] = value;
+			return previous;
+		}
+		if (size == facts.length) {
+			facts = Arrays.copyOf(facts, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		facts[size] = key;
+		values[size] = value;
+		index.put(key.getKey().number(), size++);
+		live++;
+		return null;
+	}
+
+	@Override
+	public V remove(Object key) {
+		int slot = slotOf(key);
+		if (slot == LongIntMap.MISSING)
+			return null;
+		V previous = removeSlot(slot);
+		compactIfSparse();
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		for (int slot = 0; slot < size; slot++)
+			if (facts[slot] != null)
+				removeSlot(slot);
+		compactIfSparse();
+	}
+
+	@Override
+	public Set<Entry<FlowAbstraction, V>> entrySet() {
+		return new AbstractSet<Entry<FlowAbstraction, V>>() {
+			@Override
+			public Iterator<Entry<FlowAbstraction, V>> iterator() {
+				return new Entries();
+			}
+
+			@Override
+			public int size() {
+				return live;
+			}
+		};
+	}
+
+	/***** Slots *****/
+
+	private int slotOf(Object key) {
+		if (!(key instanceof FlowAbstraction))
+			return LongIntMap.MISSING;
+		int slot = index.get(((FlowAbstraction) key).getKey().number());
+		return slot == LongIntMap.MISSING || facts[slot] == null ? LongIntMap.MISSING : slot;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V removeSlot(int slot) {
+		V previous = (V) values[slot];
+		facts[slot] = null;
+		values[slot] = null;
+		live--;
+		return previous;
+	}
+
+	// Not called while iterating, the slots would move under the iterator
+	private void compactIfSparse() {
+		if (live * 2 >= size)
+			return;
+		FlowAbstraction[] oldFacts = facts;
+		Object[] oldValues = values;
+		int oldSize = size;
+		facts = new FlowAbstraction[Math.max(2, live)];
+		values = new Object[facts.length];
+		index.clear();
+		size = 0;
+		for (int slot = 0; slot < oldSize; slot++) {
+			if (oldFacts[slot] != null) {
+				facts[size] = oldFacts[slot];
+				values[size] = oldValues[slot];
+				index.put(oldFacts[slot].getKey().number(), size++);
+			}
+		}
+	}
+
+	// Live entries in insertion order, written through
+	private class Entries implements Iterator<Entry<FlowAbstraction, V>> {
+
+		private int next = advance(0);
+		private int current = -1;
+
+		private int advance(int slot) {
+			while (slot < size && facts[slot] == null)
+				slot++;
+			return slot;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Entry<FlowAbstraction, V> next() {
+			if (next >= size)
+				throw new NoSuchElementException();
+			current = next;
+			next = advance(next + 1);
+			final int slot = current;
+			return new SimpleEntry<FlowAbstraction, V>(facts[slot], get(facts[slot])) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public V setValue(V value) {
+					values[slot] = value;
+					return super.setValue(value);
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (current < 0 || facts[current] == null)
+				throw new IllegalStateException();
+			removeSlot(current);
+		}
+	}
+}
@@ -1,7 +1,8 @@
 package layeredtaintplugin.internal;
 
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
 
 import layeredtaintplugin.Config;
 import soot.Local;
@@ -14,32 +15,42 @@ import soot.jimple.Constant;
 import soot.jimple.InstanceFieldRef;
 import soot.jimple.StaticFieldRef;
 
+/**
+ * A taint: the interned key that decides equality (local, access path,
+ * statement) and the provenance of this instance (source, method,
+ * predecessor and neighbours), which is not part of equality. With
+ * Config.provenanceLog, predecessors and neighbours are kept in the
+ * ProvenanceLog instead of the heap.
+ */
 public class FlowAbstraction {
 
-	private final static FlowAbstraction zeroAbstraction = new FlowAbstraction(null, null, null, null, null);
+	private final static FlowAbstraction zeroAbstraction = new FlowAbstraction(null, FactKey.zero(), null, null);
 
+	private final FactKey key;
+
+	// Provenance
 	private final Unit source;
-	private final Local local;
-	private SootField[] fields = new SootField[] {};
-	private Unit unit;
-	private SootMethod method;
-	private HashSet<FlowAbstraction> neighbours;
-	private FlowAbstraction predecessor;
-
-	public FlowAbstraction(Unit source, Local local, Unit stmt, SootMethod method, FlowAbstraction predecessor) {
-		this(source, local, new SootField[] {}, stmt, method, predecessor);
-	}
+	private final SootMethod method;
+	private final FlowAbstraction predecessor;
+	// Created on the first neighbour, most facts have none
+	private Set<FlowAbstraction> neighbours = null;
 
-	public FlowAbstraction(Unit source, Local local, SootField[] fields, Unit unit, SootMethod method,
-			FlowAbstraction predecessor) {
+	protected FlowAbstraction(Unit source, FactKey key, SootMethod method, FlowAbstraction predecessor) {
 		this.source = source;
-		this.local = local;
-		this.fields = fields;
-		truncateFields();
-		this.unit = unit;
+		this.key = key;
 		this.method = method;
 		this.predecessor = predecessor;
-		this.neighbours = new HashSet<FlowAbstraction>();
+	}
+
+	public static FlowAbstraction create(Unit source, Local local, Unit unit, SootMethod method,
+			FlowAbstraction predecessor) {
+		return create(source, FactKey.v(local, AccessPath.empty(), unit), method, predecessor);
+	}
+
+	private static FlowAbstraction create(Unit source, FactKey key, SootMethod method, FlowAbstraction predecessor) {
+		if (Config.provenanceLog)
+			return ProvenanceLog.v().append(source, key, method, predecessor);
+		return new FlowAbstraction(source, key, method, predecessor);
 	}
 
 	public static FlowAbstraction zeroAbstraction() {
@@ -47,9 +58,7 @@ public class FlowAbstraction {
 	}
 
 	public boolean isZeroAbstraction() {
-		if (local == null && source == null && fields.length == 0)
-			return true;
-		return false;
+		return source == null && key == FactKey.zero();
 	}
 
 	/***** Getters and setters *****/
@@ -63,97 +72,86 @@ public class FlowAbstraction {
 	}
 
 	public Local getLocal() {
-		return this.local;
+		return key.getLocal();
 	}
 
-	public SootField[] getFields() {
-		return this.fields;
+	public AccessPath getAccessPath() {
+		return key.getAccessPath();
 	}
 
 	public Unit getUnit() {
-		return this.unit;
+		return key.getUnit();
+	}
+
+	public FactKey getKey() {
+		return key;
 	}
 
 	public FlowAbstraction predecessor() {
 		return predecessor;
 	}
 
-	public HashSet<FlowAbstraction> neighbours() {
-		return neighbours;
+	// Enough to compare predecessors, which are equal if their keys are
+	protected FactKey predecessorKey() {
+		return predecessor == null ? null : predecessor.getKey();
 	}
 
-	public void addNeighbour(FlowAbstraction neighbour) {
+	public Set<FlowAbstraction> neighbours() {
+		Set<FlowAbstraction> res = neighbours;
+		return res == null ? Collections.<FlowAbstraction> emptySet() : res;
+	}
+
+	public synchronized void addNeighbour(FlowAbstraction neighbour) {
+		if (neighbours == null)
+			neighbours = new HashSet<FlowAbstraction>();
 		this.neighbours.add(neighbour);
 	}
 
+	// The same fact with its access path cut to the given length
+	public FlowAbstraction truncate(int length) {
+		if (getAccessPath().length() <= length)
+			return this;
+		return create(source, FactKey.v(getLocal(), getAccessPath().prefix(length), getUnit()), method,
+				predecessor());
+	}
+
 	/***** Utils *****/
 
 	public boolean exactEquals(FlowAbstraction other) {
 		if (this.equals(other)) {
-			return this.predecessor.equals(other.predecessor);
+			return this.predecessorKey() == other.predecessorKey();
 		}
 		return false;
 	}
 
 	@Override
 	public int hashCode() {
-		if (isZeroAbstraction())
-			return 0;
-
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + Arrays.hashCode(fields);
-		result = prime * result + ((local == null) ? 0 : local.hashCode());
-		result = prime * result + ((unit == null) ? 0 : unit.hashCode());
-		if (local == null) {
-			SootField firstField = fields[0];
-			result = prime * result + firstField.getDeclaringClass().hashCode();
-		}
-		return result;
+		return key.hashCode();
 	}
 
+	// Equal facts share their key
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		FlowAbstraction other = (FlowAbstraction) obj;
-		if (other.isZeroAbstraction() && isZeroAbstraction())
-			return true;
-		if (!Arrays.equals(fields, other.fields))
-			return false;
-		if (local == null) {
-			if (other.local != null)
-				return false;
-			else if (!fields[0].getDeclaringClass().equals(other.getFields()[0].getDeclaringClass()))
-				return false;
-		} else if (!local.equals(other.local))
+		if (!(obj instanceof FlowAbstraction))
 			return false;
-		if (unit == null) {
-			if (other.unit != null)
-				return false;
-		} else if (!unit.equals(other.unit))
-			return false;
-		return true;
+		return key == ((FlowAbstraction) obj).key;
 	}
 
 	public String getShortName() {
 		if (isZeroAbstraction())
 			return "0";
 
+		Local local = getLocal();
+		AccessPath fields = getAccessPath();
 		String res = "";
 		if (local != null)
 			res += local.getName();
 		else
-			res += fields[0].getDeclaringClass().getName();
-		if (fields != null && fields.length > 0) {
-			for (SootField sf : fields) {
-				res += "." + sf.getName();
-			}
-		}
+			res += fields.getFirst().getDeclaringClass().getName();
+		if (!fields.isEmpty())
+			res += "." + fields;
 		// res += "(" + this.hashCode() + ")";
 
 		return res;
@@ -165,45 +163,45 @@ public class FlowAbstraction {
 	}
 
 	public String toLongString() {
-		return getShortName() + " --- " + unit + " --- " + predecessor;
+		return getShortName() + " --- " + getUnit() + " --- " + predecessor;
 	}
 
 	/**** Abstraction operations ****/
 
 	public FlowAbstraction deriveWithNewSource(Unit newSource, Unit unit, SootMethod method,
 			FlowAbstraction predecessor) {
-		return new FlowAbstraction(newSource, local, fields, unit, method, predecessor);
+		return create(newSource, FactKey.v(getLocal(), getAccessPath(), unit), method, predecessor);
 	}
 
 	public FlowAbstraction deriveWithNewStmt(Unit unit, SootMethod method) {
 		// Avoid multiple zeroAbstractions with different units
-		if (source == null && local == null && fields == null && this.equals(zeroAbstraction()))
+		if (isZeroAbstraction())
 			return zeroAbstraction();
 		FlowAbstraction pred = getPredecessor(unit, method, this);
-		return new FlowAbstraction(source, local, fields, unit, method, pred);
+		return create(source, FactKey.v(getLocal(), getAccessPath(), unit), method, pred);
 	}
 
 	public FlowAbstraction deriveWithNewLocal(Local local, Unit unit, SootMethod method, FlowAbstraction predecessor) {
 		if (local == null)
 			throw new RuntimeException("Target local may not be null");
 		predecessor = getPredecessor(unit, method, predecessor);
-		return new FlowAbstraction(source, local, fields, unit, method, predecessor);
+		return create(source, FactKey.v(local, getAccessPath(), unit), method, predecessor);
 	}
 
 	public static FlowAbstraction v(Unit source, Value v, Unit unit, SootMethod method, FlowAbstraction predecessor) {
 		predecessor = getPredecessor(unit, method, predecessor);
 		if (v instanceof Local) {
-			return new FlowAbstraction(source, (Local) v, unit, method, predecessor);
+			return create(source, (Local) v, unit, method, predecessor);
 		} else if (v instanceof InstanceFieldRef) {
 			InstanceFieldRef ifr = (InstanceFieldRef) v;
-			return new FlowAbstraction(source, (Local) ifr.getBase(), new SootField[] { ifr.getField() }, unit, method,
+			return create(source, FactKey.v((Local) ifr.getBase(), AccessPath.v(ifr.getField()), unit), method,
 					predecessor);
 		} else if (v instanceof StaticFieldRef) {
 			StaticFieldRef sfr = (StaticFieldRef) v;
-			return new FlowAbstraction(source, null, new SootField[] { sfr.getField() }, unit, method, predecessor);
+			return create(source, FactKey.v(null, AccessPath.v(sfr.getField()), unit), method, predecessor);
 		} else if (v instanceof ArrayRef) {
 			ArrayRef ar = (ArrayRef) v;
-			return new FlowAbstraction(source, (Local) ar.getBase(), new SootField[] {}, unit, method, predecessor);
+			return create(source, (Local) ar.getBase(), unit, method, predecessor);
 		} else
 			throw new RuntimeException("Unexpected left side " + v + " (" + v.getClass() + ")");
 	}
@@ -217,16 +215,17 @@ public class FlowAbstraction {
 
 	/**** Field operations ****/
 
-	public FlowAbstraction append(SootField[] newFields) {
-		SootField[] a = new SootField[fields.length + newFields.length];
-		System.arraycopy(fields, 0, a, 0, fields.length);
-		System.arraycopy(newFields, 0, a, fields.length, newFields.length);
-		this.fields = a;
-		this.truncateFields();
-		return this;
+	// New fact with the fields appended, same provenance
+	public FlowAbstraction append(AccessPath newFields) {
+		AccessPath fields = getAccessPath().append(newFields);
+		if (fields == getAccessPath())
+			return this;
+		return create(source, FactKey.v(getLocal(), fields, getUnit()), method, predecessor);
 	}
 
 	public boolean hasPrefix(Value v) { // if this has prefix v
+		Local local = getLocal();
+		SootField first = getAccessPath().getFirst();
 		if (v instanceof Local) {
 			if (local == null)
 				return false;
@@ -240,7 +239,7 @@ public class FlowAbstraction {
 					return false;
 			} else if (!local.equals(ifr.getBase()))
 				return false;
-			if (fields.length > 0 && ifr.getField() == fields[0])
+			if (first != null && ifr.getField() == first)
 				return true;
 			return false;
 
@@ -248,7 +247,7 @@ public class FlowAbstraction {
 			StaticFieldRef sfr = (StaticFieldRef) v;
 			if (local != null)
 				return false;
-			if (fields.length > 0 && sfr.getField() == fields[0])
+			if (first != null && sfr.getField() == first)
 				return true;
 			return false;
 
@@ -265,23 +264,15 @@ public class FlowAbstraction {
 			throw new RuntimeException("Unexpected left side " + v.getClass());
 	}
 
-	public SootField[] getPostfix(Value v) { // this is longer than v
+	public AccessPath getPostfix(Value v) { // this is longer than v
 		if (v instanceof InstanceFieldRef || v instanceof StaticFieldRef) {
-			if (fields.length > 0)
-				return Arrays.copyOfRange(fields, 1, fields.length);
-			return new SootField[] {};
+			return getAccessPath().postfix();
 		} else if (v instanceof ArrayRef) {
-			return new SootField[] {};
+			return AccessPath.empty();
 		} else
 			throw new RuntimeException("Unexpected left side " + v.getClass());
 	}
 
-	private void truncateFields() {
-		if (this.fields.length > Config.apLength) {
-			this.fields = Arrays.copyOf(this.fields, Config.apLength);
-		}
-	}
-
 	public boolean same(Value sourceInArgs) {
 		return sourceInArgs.toString().equals(this.getShortName());
 	}
@@ -0,0 +1,214 @@
+package layeredtaintplugin.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import layeredtaintplugin.Config;
+import layeredtaintplugin.android.SetupApplicationJIT;
+import layeredtaintplugin.android.readers.PermissionMethodParserJIT;
+import layeredtaintplugin.reporter.HeadlessReporter;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+
+/**
+ * Runs the layered analysis for one start point without a workbench and
+ * writes the leaks and timings to a file, and the analysis statistics as
+ * JSON to the same file with a .json suffix. The paths of the leaks are
+ * found after the analysis and timed on their own.
+ *
+ * Arguments: APK or class directory, Soot classpath, project classes (file
+ * with one class per line, or comma-separated list), start method
+ * signature, output file, and optionally the sources and sinks file and the
+ * Android callbacks file. For a class directory, the APK next to it is used
+ * as in the workbench; without one, the classes are analyzed on their own,
+ * without manifest.
+ */
+public class HeadlessAnalysis {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(HeadlessAnalysis.class);
+
+	public static final String USAGE = "<apk|classDir> <sootCP> <projectClasses> <startMethod> <output>"
+			+ " [sourcesAndSinks] [callbacks]";
+
+	private final ExperimentalConfiguration config;
+	// Read instead of an APK if the configuration has none
+	private final String classDirectory;
+	private final File output;
+	private final String susiFile;
+	private final String callbacksFile;
+
+	private SetupApplicationJIT app = null;
+	private long sootTime = 0;
+	private long startPointTime = 0;
+
+	public HeadlessAnalysis(ExperimentalConfiguration config, String classDirectory, File output, String susiFile,
+			String callbacksFile) {
+		this.config = config;
+		this.classDirectory = classDirectory;
+		this.output = output;
+		this.susiFile = susiFile;
+		this.callbacksFile = callbacksFile;
+	}
+
+	public static void main(String[] args) {
+		try {
+			HeadlessAnalysis analysis = fromArgs(args);
+			if (analysis == null) {
+				System.err.println("Usage: HeadlessAnalysis " + USAGE);
+				System.exit(1);
+			}
+			if (!analysis.run())
+				System.exit(2);
+		} catch (IOException e) {
+			LOGGER.error("Headless analysis failed : " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	// Null if there are not enough arguments or the input does not exist
+	public static HeadlessAnalysis fromArgs(String[] args) throws IOException {
+		if (args.length < 5)
+			return null;
+		File input = new File(args[0]);
+		if (!input.exists()) {
+			LOGGER.error("Input not found: " + input);
+			return null;
+		}
+		String apkPath = getApkFile(input);
+		String sootCP = input.isDirectory() ? input.getPath() + File.pathSeparator + args[1] : args[1];
+		ExperimentalConfiguration config = new ExperimentalConfiguration(args[3], input.getName(), apkPath,
+				readProjectClasses(args[2]), sootCP);
+		return new HeadlessAnalysis(config, input.isDirectory() ? input.getPath() : null, new File(args[4]),
+				args.length > 5 ? args[5] : Config.susi, args.length > 6 ? args[6] : Config.callbacks);
+	}
+
+	// Returns false if the start point could not be analyzed
+	public boolean run() throws IOException {
+		long start = System.nanoTime();
+		SootMethod sm = setUp();
+		if (sm == null)
+			return false;
+
+		HeadlessReporter reporter = new HeadlessReporter(sm);
+		LayeredAnalysis la = analyze(reporter);
+		long analysisTime = System.nanoTime();
+		reporter.findPaths();
+		long pathTime = System.nanoTime();
+
+		PrintWriter out = new PrintWriter(new FileWriter(output));
+		try {
+			out.println("start\t" + sm.getSignature());
+			out.println("time\tsoot\t" + millis(start, sootTime));
+			out.println("time\tstartpoint\t" + millis(sootTime, startPointTime));
+			out.println("time\tanalysis\t" + millis(startPointTime, analysisTime));
+			out.println("time\tpaths\t" + millis(analysisTime, pathTime));
+			out.println("leaks\t" + reporter.getLeakCount());
+			reporter.write(out);
+		} finally {
+			out.close();
+		}
+		// Statistics next to the leaks
+		PrintWriter statistics = new PrintWriter(new FileWriter(output.getPath() + ".json"));
+		try {
+			statistics.print(la.getStatistics().toJson());
+		} finally {
+			statistics.close();
+		}
+		LOGGER.info("Found " + reporter.getLeakCount() + " leaks in " + millis(start, analysisTime) + " ms");
+		return true;
+	}
+
+	// Fresh Soot scene with the start point loaded, null if it is not found
+	public SootMethod setUp() throws IOException {
+		PermissionMethodParserJIT susiParser = PermissionMethodParserJIT.fromStringList(readLines(susiFile));
+		Set<String> androidCallbacks = new HashSet<String>(readLines(callbacksFile));
+		if (config.getApk() != null)
+			app = new SetupApplicationJIT(config.getApk(), config.getSootCP(), susiParser, androidCallbacks);
+		else
+			app = SetupApplicationJIT.forClassDirectory(classDirectory, config.getSootCP(), susiParser,
+					androidCallbacks);
+		app.initializeSoot();
+		sootTime = System.nanoTime();
+
+		String startClass = config.getStartPoint().substring(1, config.getStartPoint().indexOf(":"));
+		SootClass sc = Scene.v().loadClassAndSupport(startClass);
+		if (sc.isPhantom() || !Scene.v().containsMethod(config.getStartPoint())) {
+			LOGGER.error("Starting point not found: " + config.getStartPoint());
+			return null;
+		}
+		SootMethod sm = Scene.v().getMethod(config.getStartPoint());
+		if (sm.isAbstract() || sm.isNative()) {
+			LOGGER.error("Starting point has no body: " + sm);
+			return null;
+		}
+		config.setStartSootMethod(sm);
+		startPointTime = System.nanoTime();
+		return sm;
+	}
+
+	// Analysis of the start point in the current scene
+	public LayeredAnalysis analyze(HeadlessReporter reporter) {
+		LayeredAnalysis la = new LayeredAnalysis(reporter, app, config.getProjectClasses());
+		la.startAnalysis();
+		return la;
+	}
+
+	public File getOutput() {
+		return output;
+	}
+
+	private static long millis(long from, long to) {
+		return (to - from) / 1000000;
+	}
+
+	/***** Input files *****/
+
+	// Same lookup as in the workbench: the APK lies next to the class folder.
+	// Null if there is none.
+	private static String getApkFile(File input) {
+		if (!input.isDirectory())
+			return input.getPath();
+		File parentDirectory = input.getAbsoluteFile().getParentFile();
+		File[] siblings = parentDirectory == null ? null : parentDirectory.listFiles();
+		if (siblings != null) {
+			for (File child : siblings) {
+				if (child.getName().endsWith(".apk"))
+					return child.getAbsolutePath();
+			}
+		}
+		return null;
+	}
+
+	private static Set<String> readProjectClasses(String projectClasses) throws IOException {
+		if (new File(projectClasses).isFile())
+			return new HashSet<String>(readLines(projectClasses));
+		return new HashSet<String>(Arrays.asList(projectClasses.split(",")));
+	}
+
+	private static List<String> readLines(String fileName) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = br.readLine()) != null)
+				if (!line.trim().isEmpty())
+					lines.add(line.trim());
+		} finally {
+			br.close();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,125 @@
+package layeredtaintplugin.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import heros.EdgeFunction;
+import heros.solver.JumpFunctions;
+
+/**
+ * Jump functions whose entries can be dropped per target node, so that the
+ * summaries of unchanged methods can be kept from one run to the next.
+ * Target facts are also indexed by shape, to find neighbours without
+ * scanning the forward lookup.
+ */
+public class IncrementalJumpFunctions<N, L> extends JumpFunctions<N, FlowAbstraction, L> {
+
+	private final EdgeFunction<L> allTop;
+
+	// Target facts by source fact and target node, then by shape, oldest first
+	private final Table<FlowAbstraction, N, Map<FactKey, List<FlowAbstraction>>> byShape = HashBasedTable.create();
+
+	public IncrementalJumpFunctions(EdgeFunction<L> allTop) {
+		super(allTop);
+		this.allTop = allTop;
+	}
+
+	/***** JumpFunctions *****/
+
+	@Override
+	public synchronized void addFunction(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal,
+			EdgeFunction<L> function) {
+		if (!function.equalTo(allTop)) {
+			Map<FlowAbstraction, EdgeFunction<L>> targets = nonEmptyForwardLookup.get(sourceVal, target);
+			if (targets == null || !targets.containsKey(targetVal))
+				indexShape(sourceVal, target, targetVal);
+		}
+		super.addFunction(sourceVal, target, targetVal, function);
+	}
+
+	@Override
+	public synchronized boolean removeFunction(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal) {
+		Map<FactKey, List<FlowAbstraction>> shapes = byShape.get(sourceVal, target);
+		if (shapes != null) {
+			List<FlowAbstraction> sameShape = shapes.get(targetVal.getKey().shape());
+			if (sameShape != null)
+				sameShape.remove(targetVal);
+		}
+		return super.removeFunction(sourceVal, target, targetVal);
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		byShape.clear();
+	}
+
+	// Whether the solver already has this edge, i.e. would not add it again
+	public synchronized boolean containsFunction(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal) {
+		Map<FlowAbstraction, EdgeFunction<L>> targets = nonEmptyForwardLookup.get(sourceVal, target);
+		return targets != null && targets.containsKey(targetVal);
+	}
+
+	/***** Neighbours *****/
+
+	// First fact reached from sourceVal at target with the shape of targetVal,
+	// but another derivation
+	public synchronized FlowAbstraction neighbourOf(FlowAbstraction sourceVal, N target,
+			FlowAbstraction targetVal) {
+		Map<FactKey, List<FlowAbstraction>> shapes = byShape.get(sourceVal, target);
+		if (shapes == null)
+			return null;
+		List<FlowAbstraction> sameShape = shapes.get(targetVal.getKey().shape());
+		if (sameShape == null)
+			return null;
+		for (FlowAbstraction fa : sameShape)
+			if (!fa.exactEquals(targetVal))
+				return fa;
+		return null;
+	}
+
+	private void indexShape(FlowAbstraction sourceVal, N target, FlowAbstraction targetVal) {
+		Map<FactKey, List<FlowAbstraction>> shapes = byShape.get(sourceVal, target);
+		if (shapes == null) {
+			shapes = new HashMap<FactKey, List<FlowAbstraction>>();
+			byShape.put(sourceVal, target, shapes);
+		}
+		FactKey shape = targetVal.getKey().shape();
+		List<FlowAbstraction> sameShape = shapes.get(shape);
+		if (sameShape == null) {
+			sameShape = new ArrayList<FlowAbstraction>(1);
+			shapes.put(shape, sameShape);
+		}
+		sameShape.add(targetVal);
+	}
+
+	/***** Incremental *****/
+
+	public synchronized void removeTarget(N target) {
+		nonEmptyReverseLookup.row(target).clear();
+		nonEmptyForwardLookup.column(target).clear();
+		nonEmptyLookupByTargetNode.remove(target);
+		summaryPaths.column(target).clear();
+		byShape.column(target).clear();
+	}
+
+	// Called between tasks, when no solver is running
+	public void trim() {
+	}
+
+	// Called once the tables are not reused by a next run
+	public void close() {
+	}
+
+	public synchronized int size() {
+		int size = 0;
+		for (Table<FlowAbstraction, FlowAbstraction, EdgeFunction<L>> functions : nonEmptyLookupByTargetNode.values())
+			size += functions.size();
+		return size;
+	}
+}
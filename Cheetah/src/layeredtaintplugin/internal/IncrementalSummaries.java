@@ -0,0 +1,236 @@
+package layeredtaintplugin.internal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+
+import heros.EdgeFunction;
+import heros.solver.IFDSSolver;
+import heros.solver.IFDSSolver.BinaryDomain;
+import heros.solver.Pair;
+import layeredtaintplugin.Config;
+import layeredtaintplugin.reporter.AbstractReporter;
+import soot.Body;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.toolkits.callgraph.CallGraph;
+
+/**
+ * IFDS tables of a project kept from one run to the next. Before a new run,
+ * the summaries of the methods whose Jimple body changed, and of their
+ * transitive callers, are dropped; everything else is reused by the solver.
+ */
+public class IncrementalSummaries {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(IncrementalSummaries.class);
+
+	// Soot objects the tables refer to are only valid in this scene
+	private Scene scene = null;
+
+	private IncrementalJumpFunctions<Unit, BinaryDomain> jumpFunctions;
+	private Table<Unit, FlowAbstraction, Table<Unit, FlowAbstraction, EdgeFunction<BinaryDomain>>> endSum;
+	private Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> inc;
+	private TaskAwareIcfg icfg;
+
+	// Bodies seen by the previous runs and the hash of their Jimple
+	private final Map<Body, Integer> bodyHashes = new HashMap<Body, Integer>();
+	// Leaks of the last run from each start point
+	private final Map<SootMethod, List<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>>> reports = new HashMap<SootMethod, List<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>>>();
+
+	/***** Run lifecycle *****/
+
+	// Prepare the tables for a new run. Returns false if nothing was reused.
+	public boolean prepareRun() {
+		if (scene != null && scene == Scene.v()) {
+			Set<Body> invalid = invalidateChangedMethods();
+			LOGGER.info("Reusing summaries, " + invalid.size() + " of " + (bodyHashes.size() + invalid.size())
+					+ " bodies invalidated");
+			return true;
+		}
+
+		scene = Scene.v();
+		Scene.v().setCallGraph(new CallGraph());
+		icfg = new TaskAwareIcfg();
+		close();
+		// The facts of the dropped tables are not read again
+		if (Config.provenanceLog)
+			ProvenanceLog.restart();
+		boolean compact = Config.compactJumpFunctions || Config.spillJumpFunctions;
+		// Their cells are created by heros, as HashBasedTable and HashMap
+		endSum = compact ? FactMap.<Unit, Table<Unit, FlowAbstraction, EdgeFunction<BinaryDomain>>> table()
+				: HashBasedTable.<Unit, FlowAbstraction, Table<Unit, FlowAbstraction, EdgeFunction<BinaryDomain>>> create();
+		inc = compact ? FactMap.<Unit, Map<Unit, Set<FlowAbstraction>>> table()
+				: HashBasedTable.<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> create();
+		if (Config.spillJumpFunctions && !Config.provenanceLog)
+			LOGGER.warn("Jump functions can only be written to disk with the provenance log, keeping them in memory");
+		if (Config.spillJumpFunctions && Config.provenanceLog) {
+			SpillingJumpFunctions<BinaryDomain> spilling = new SpillingJumpFunctions<BinaryDomain>(
+					IFDSSolver.getAllTop(), icfg);
+			jumpFunctions = spilling;
+			inc = spilling.getIncoming();
+		} else if (Config.compactJumpFunctions || Config.spillJumpFunctions)
+			jumpFunctions = new CompactJumpFunctions<Unit, BinaryDomain>(IFDSSolver.getAllTop());
+		else
+			jumpFunctions = new IncrementalJumpFunctions<Unit, BinaryDomain>(IFDSSolver.getAllTop());
+		bodyHashes.clear();
+		reports.clear();
+		return false;
+	}
+
+	// Re-report the leaks found from the same start point whose path is still
+	// valid
+	public void replayReports(AbstractReporter reporter) {
+		List<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>> startPointReports = reports
+				.get(reporter.getStartPoint());
+		if (startPointReports == null)
+			return;
+		for (Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>> report : startPointReports) {
+			if (isValid(report.getO1(), report.getO2()))
+				reporter.report(report.getO1(), report.getO2());
+		}
+	}
+
+	// Tables of an interrupted run miss edges, they cannot be reused
+	public void discard() {
+		scene = null;
+		close();
+		bodyHashes.clear();
+		reports.clear();
+	}
+
+	// Tables of the last run are not reused
+	public void close() {
+		if (jumpFunctions != null)
+			jumpFunctions.close();
+	}
+
+	public void save(AbstractReporter reporter) {
+		for (Body body : icfg.getBodies())
+			if (!bodyHashes.containsKey(body))
+				bodyHashes.put(body, bodyHash(body));
+		reports.put(reporter.getStartPoint(), reporter.getReports());
+	}
+
+	/***** Invalidation *****/
+
+	private Set<Body> invalidateChangedMethods() {
+		Set<Body> changed = new HashSet<Body>();
+		Set<Body> replaced = new HashSet<Body>();
+		for (Entry<Body, Integer> entry : bodyHashes.entrySet()) {
+			Body body = entry.getKey();
+			Body current = currentBody(body.getMethod());
+			if (current == null || bodyHash(current) != entry.getValue())
+				changed.add(body);
+			else if (current != body)
+				// Same code, new units: callers stay valid
+				replaced.add(body);
+		}
+
+		Set<Body> invalid = withTransitiveCallers(changed);
+		invalid.addAll(replaced);
+		for (Body body : invalid) {
+			dropSummaries(body);
+			bodyHashes.remove(body);
+		}
+		return invalid;
+	}
+
+	private Set<Body> withTransitiveCallers(Set<Body> bodies) {
+		Set<Body> res = new HashSet<Body>(bodies);
+		LinkedList<Body> worklist = new LinkedList<Body>(bodies);
+		while (!worklist.isEmpty()) {
+			Body callee = worklist.poll();
+			// Call sites are the incoming edges at the callee's start points
+			for (Unit u : callee.getUnits()) {
+				for (Map<Unit, Set<FlowAbstraction>> callSites : inc.row(u).values()) {
+					for (Unit callSite : callSites.keySet()) {
+						Body caller = icfg.getBodyOf(callSite);
+						if (caller != null && res.add(caller))
+							worklist.add(caller);
+					}
+				}
+			}
+		}
+		return res;
+	}
+
+	private void dropSummaries(Body body) {
+		Set<Unit> units = new HashSet<Unit>(body.getUnits());
+		for (Unit u : units)
+			jumpFunctions.removeTarget(u);
+		synchronized (inc) {
+			for (Unit u : units) {
+				endSum.row(u).clear();
+				inc.row(u).clear();
+			}
+			for (Map<Unit, Set<FlowAbstraction>> callSites : inc.values())
+				callSites.keySet().removeAll(units);
+		}
+		icfg.invalidate(body);
+	}
+
+	private boolean isValid(FlowAbstraction fa, Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks) {
+		for (FlowAbstraction pred = fa; pred != null; pred = pred.predecessor())
+			if (pred.getUnit() != null && icfg.getBodyOf(pred.getUnit()) == null)
+				return false;
+		for (Set<List<FlowAbstraction>> paths : summaryLeaks.values())
+			for (List<FlowAbstraction> path : paths)
+				for (FlowAbstraction pathFa : path)
+					if (pathFa.getUnit() != null && icfg.getBodyOf(pathFa.getUnit()) == null)
+						return false;
+		return icfg.getBodyOf(fa.getSource()) != null;
+	}
+
+	/***** Bodies *****/
+
+	private Body currentBody(SootMethod m) {
+		String signature = m.getSignature();
+		if (!Scene.v().containsMethod(signature))
+			return null;
+		SootMethod current = Scene.v().getMethod(signature);
+		if (current.hasActiveBody())
+			return current.getActiveBody();
+		if (!current.isConcrete())
+			return null;
+		try {
+			synchronized (Scene.v()) {
+				return current.retrieveActiveBody();
+			}
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private int bodyHash(Body body) {
+		return body.toString().hashCode();
+	}
+
+	/***** Getters *****/
+
+	public IncrementalJumpFunctions<Unit, BinaryDomain> getJumpFunctions() {
+		return jumpFunctions;
+	}
+
+	public Table<Unit, FlowAbstraction, Table<Unit, FlowAbstraction, EdgeFunction<BinaryDomain>>> getEndSum() {
+		return endSum;
+	}
+
+	public Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> getInc() {
+		return inc;
+	}
+
+	public TaskAwareIcfg getIcfg() {
+		return icfg;
+	}
+}
@@ -0,0 +1,115 @@
+package layeredtaintplugin.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import layeredtaintplugin.Config;
+import layeredtaintplugin.icfg.JitIcfg;
+import soot.Body;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+
+/**
+ * Loads the classes of the layer after a task while the task is solved
+ * (Config.prefetchClasses). A single loader thread resolves them under the
+ * Scene lock, like every other class loading path. For the classes of the
+ * package it also retrieves their bodies and warms their unit graphs and
+ * may-alias analyses in the icfg caches (see JitIcfg.warm). Project classes
+ * are only resolved.
+ */
+public class LayerPrefetcher {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(LayerPrefetcher.class);
+
+	private final ProjectInformation projectInformation;
+	private final JitIcfg icfg;
+
+	private final ExecutorService loader = Executors.newSingleThreadExecutor();
+
+	// Classes handed to the loader, only touched by the scheduling thread
+	private final Set<String> requested = new HashSet<String>();
+	private final AtomicInteger loadedClasses = new AtomicInteger();
+	private final AtomicInteger warmedBodies = new AtomicInteger();
+
+	public LayerPrefetcher(ProjectInformation projectInformation, JitIcfg icfg) {
+		this.projectInformation = projectInformation;
+		this.icfg = icfg;
+	}
+
+	// Called when the task is dequeued
+	public void prefetch(Task task) {
+		String packageName = task.getStartMethod().getDeclaringClass().getJavaPackageName();
+		switch (task.getLayer()) {
+		case CLASS_CALLBACKS:
+			// The file layer only uses loaded classes, look one layer further
+		case FILE:
+			for (String className : projectInformation.projectClasses())
+				if (className.startsWith(packageName))
+					request(className, true);
+			break;
+		case PACKAGE:
+			for (String className : projectInformation.projectClasses())
+				request(className, false);
+			break;
+		default:
+			break;
+		}
+	}
+
+	public void shutdown() {
+		loader.shutdownNow();
+		LOGGER.info("Prefetched " + loadedClasses.get() + " classes, " + warmedBodies.get() + " bodies");
+	}
+
+	/***** Loader thread *****/
+
+	private void request(final String className, final boolean withBodies) {
+		if (!requested.add(className))
+			return;
+		loader.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					load(className, withBodies);
+				} catch (RuntimeException e) {
+					// Loaded again, and reported, by the task which needs it
+					LOGGER.debug("Prefetch of " + className + " failed: " + e);
+				}
+			}
+		});
+	}
+
+	private void load(String className, boolean withBodies) {
+		List<Body> bodies = new ArrayList<Body>();
+		synchronized (Scene.v()) {
+			if (!Scene.v().containsType(className)
+					|| Scene.v().getSootClass(className).resolvingLevel() < SootClass.BODIES) {
+				Scene.v().loadClassAndSupport(className);
+				if (!Config.incrementalHierarchy)
+					Scene.v().getOrMakeFastHierarchy();
+				loadedClasses.incrementAndGet();
+			}
+			if (withBodies)
+				for (SootMethod sm : Scene.v().getSootClass(className).getMethods())
+					if (sm.isConcrete())
+						bodies.add(sm.retrieveActiveBody());
+		}
+		// JitIcfg.warm only takes the Scene lock for the parts which resolve
+		// types or fields, the alias fixpoints run outside it
+		for (Body b : bodies) {
+			if (Thread.currentThread().isInterrupted())
+				return;
+			icfg.warm(b);
+			warmedBodies.incrementAndGet();
+		}
+	}
+}
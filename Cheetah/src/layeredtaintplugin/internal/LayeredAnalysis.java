@@ -4,26 +4,28 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 
 import heros.EdgeFunction;
+import heros.SynchronizedBy;
 import heros.solver.IFDSSolver;
 import heros.solver.JumpFunctions;
+import layeredtaintplugin.Config;
 import layeredtaintplugin.android.SetupApplicationJIT;
 import layeredtaintplugin.icfg.JitIcfg;
 import layeredtaintplugin.internal.layer.Layer;
-import layeredtaintplugin.reporter.Reporter;
+import layeredtaintplugin.reporter.AbstractReporter;
 import soot.Scene;
-import soot.SootMethod;
 import soot.Unit;
-import soot.jimple.toolkits.callgraph.CallGraph;
 
 public class LayeredAnalysis {
 
@@ -33,90 +35,303 @@ public class LayeredAnalysis {
 	// LoggerFactory.getLogger(LayeredAnalysis.class);
 
 	// Reporting
-	private final Reporter reporter;
+	private final AbstractReporter reporter;
 
 	// Waiting list
-	private PriorityQueue<Task> taskQueue; // LinkedList
-	private List<Task> computedTasks;
-	private AnalysisTask currentTask = null;
+	private TaskQueue taskQueue;
+	private TaskRegistry computedTasks;
 
 	// IFDS data carried over from one task to the next
-	private JumpFunctions<Unit, FlowAbstraction, IFDSSolver.BinaryDomain> jumpFunctions = null;
+	@SynchronizedBy("by use of synchronized JumpFunctions class")
+	private IncrementalJumpFunctions<Unit, IFDSSolver.BinaryDomain> jumpFunctions = null;
+	@SynchronizedBy("consistent lock on inc, taken by every solver sharing it")
 	private Table<Unit, FlowAbstraction, Table<Unit, FlowAbstraction, EdgeFunction<IFDSSolver.BinaryDomain>>> endSum = null;
+	@SynchronizedBy("consistent lock on inc, taken by every solver sharing it")
 	private Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> inc = null;
-	private JitIcfg icfg = null;
+	private TaskAwareIcfg icfg = null;
+
+	// Tables kept across runs in incremental mode
+	private final IncrementalSummaries summaries;
+	private final boolean incremental;
+	private boolean reusedSummaries = false;
+
+	// Summaries of library methods shared by all projects
+	private LibrarySummaryStore librarySummaries = null;
+
+	// Shared by the tasks of the run
+	private SourceSinkClassification sourceSinks = null;
+	private RapidTypeResolver typeResolver = null;
+	private ProjectOverrides projectOverrides = null;
+
+	// Loads the classes of upcoming layers, null unless Config.prefetchClasses
+	private LayerPrefetcher prefetcher = null;
+
+	// Telemetry
+	private final AnalysisStatistics statistics;
+
+	// Set when a newer run preempts this one
+	private CancellationToken cancellation = new CancellationToken();
 
 	private SetupApplicationJIT app;
 	private ProjectInformation projectInformation;
 
-	public LayeredAnalysis(Reporter reporter, SetupApplicationJIT app, Set<String> projectClasses) {
+	public LayeredAnalysis(AbstractReporter reporter, SetupApplicationJIT app, Set<String> projectClasses) {
+		this(reporter, app, projectClasses, null);
+	}
+
+	public LayeredAnalysis(AbstractReporter reporter, SetupApplicationJIT app, Set<String> projectClasses,
+			IncrementalSummaries summaries) {
 		this.reporter = reporter;
+		this.incremental = (summaries != null);
+		this.summaries = incremental ? summaries : new IncrementalSummaries();
+		// Replayed by the next run
+		if (incremental)
+			reporter.setRecordReports(true);
 		this.app = app;
-		taskQueue = new PriorityQueue<Task>();
-		computedTasks = new ArrayList<Task>();
+		taskQueue = new TaskQueue();
+		computedTasks = new TaskRegistry();
 		this.projectInformation = new ProjectInformation(projectClasses, reporter.getStartPoint());
+		this.statistics = new AnalysisStatistics(reporter.getRunId(), reporter.getStartPoint().getSignature());
 		initIFDS();
 	}
 
 	private void initIFDS() {
-		Scene.v().setCallGraph(new CallGraph());
-		this.jumpFunctions = new JumpFunctions<Unit, FlowAbstraction, IFDSSolver.BinaryDomain>(IFDSSolver.getAllTop());
-		this.endSum = HashBasedTable.create();
-		this.inc = HashBasedTable.create();
-		this.icfg = new JitIcfg(new ArrayList<SootMethod>()) {
-			@Override
-			public Set<SootMethod> getCalleesOfCallAt(Unit u) {
-				if (currentTask != null)
-					return currentTask.calleesOfCallAt(u);
-				else // Empty by default (same behaviour as L1)
-					return new HashSet<SootMethod>();
-			}
-		};
+		this.reusedSummaries = summaries.prepareRun();
+		this.jumpFunctions = summaries.getJumpFunctions();
+		this.endSum = summaries.getEndSum();
+		this.inc = summaries.getInc();
+		this.icfg = summaries.getIcfg();
 		this.reporter.setIFDS(icfg, jumpFunctions);
+		this.sourceSinks = new SourceSinkClassification(app, icfg);
+		this.projectOverrides = new ProjectOverrides(projectInformation);
+		if (Config.rapidTypeResolution)
+			this.typeResolver = new RapidTypeResolver(projectInformation, icfg.getHierarchy());
 	}
 
 	public void startAnalysis() {
+		// Leaks on unchanged paths are not propagated again
+		if (reusedSummaries)
+			summaries.replayReports(reporter);
 		Task task = new Task(Layer.INTRA, this.reporter.getStartPoint(), null);
 		taskQueue.add(task);
-		analyze();
+		statistics.start();
+		if (Config.prefetchClasses)
+			prefetcher = new LayerPrefetcher(projectInformation, icfg);
+		try {
+			if (Config.parallelTasks)
+				analyzeInParallel();
+			else
+				analyze();
+		} finally {
+			if (prefetcher != null)
+				prefetcher.shutdown();
+		}
+		statistics.end();
+		statistics.setCaches(icfg.getCacheStatistics());
+		if (typeResolver != null)
+			LOGGER.info("Type resolution removed " + typeResolver.getRemovedTargets() + " targets at "
+					+ typeResolver.getRefinedCalls() + " calls");
+		if (isCancelled())
+			LOGGER.info("Run " + reporter.getRunId() + " cancelled, " + computedTasks.size() + " tasks computed");
+		if (incremental) {
+			if (isCancelled())
+				summaries.discard();
+			else
+				summaries.save(reporter);
+		} else
+			summaries.close();
+		if (librarySummaries != null)
+			librarySummaries.flush();
+	}
+
+	public void setLibrarySummaries(LibrarySummaryStore librarySummaries) {
+		this.librarySummaries = librarySummaries;
+	}
+
+	public void setCancellationToken(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	public boolean isCancelled() {
+		return cancellation.isCancelled();
+	}
+
+	public AnalysisStatistics getStatistics() {
+		return statistics;
+	}
+
+	public JitIcfg getIcfg() {
+		return icfg;
+	}
+
+	public JumpFunctions<Unit, FlowAbstraction, IFDSSolver.BinaryDomain> getJumpFunctions() {
+		return jumpFunctions;
 	}
 
 	private void analyze() {
-		while (!taskQueue.isEmpty()) {
+		while (!taskQueue.isEmpty() && !isCancelled()) {
 
 			Task task = taskQueue.poll(); // pollFirst
-			if (computedTasks.contains(task)) {
+			if (computedTasks.isComputed(task)) {
 				// Cancel task
 				continue;
 			}
+			if (prefetcher != null)
+				prefetcher.prefetch(task);
+
+			// Classes loaded to set up the task count for it
+			TaskStatistics taskStatistics = new TaskStatistics(task);
+			int classesAtStart = loadedClasses();
+			taskStatistics.start();
 
 			AnalysisTask analysisTask = Layer.createAnalysisTask(task, app, projectInformation);
 			analysisTask.setReporter(reporter);
+			analysisTask.setLibrarySummaries(librarySummaries);
+			analysisTask.setStatistics(taskStatistics);
+			analysisTask.setCancellationToken(cancellation);
+			analysisTask.setSourceSinkClassification(sourceSinks);
+			analysisTask.setTypeResolver(typeResolver);
+			analysisTask.setProjectOverrides(projectOverrides);
 			analysisTask.setAnalysisInfo(jumpFunctions, endSum, inc, icfg);
 			Set<Task> requiredTasks = analysisTask.requiredTasks();
 
 			Set<Task> remainingRequiredTasks = notYetExecuted(requiredTasks);
 
 			if (remainingRequiredTasks.isEmpty()) {
-				currentTask = analysisTask;
 				analysisTask.analyze();
-				computedTasks.add(task);
-				taskQueue.addAll(analysisTask.nextTasks());
+				// Partially solved, neither computed nor followed up
+				if (isCancelled())
+					break;
+				computedTasks.setComputed(task);
+				Set<Task> nextTasks = analysisTask.nextTasks();
+				taskQueue.addAll(nextTasks);
+				taskStatistics.end(nextTasks.size());
+				taskStatistics.setClassesLoaded(loadedClasses() - classesAtStart);
+				statistics.add(taskStatistics);
+				jumpFunctions.trim();
 
 			} else {
 				taskQueue.add(task); // push
-				for (Task remainingTask : remainingRequiredTasks) {
-					taskQueue.remove(remainingTask);
-					taskQueue.add(remainingTask); // push
+				for (Task remainingTask : remainingRequiredTasks)
+					taskQueue.reschedule(remainingTask); // push
+			}
+		}
+	}
+
+	/***** Parallel scheduling *****/
+
+	private void analyzeInParallel() {
+		ExecutorService executor = Executors.newFixedThreadPool(Config.taskThreads);
+		try {
+			while (!taskQueue.isEmpty() && !isCancelled()) {
+				// Classes loaded to set up the batch count for it
+				int classesAtStart = loadedClasses();
+				List<AnalysisTask> batch = nextBatch();
+				if (batch.isEmpty())
+					continue;
+
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (final AnalysisTask analysisTask : batch) {
+					final TaskStatistics taskStatistics = new TaskStatistics(analysisTask.getTask());
+					analysisTask.setStatistics(taskStatistics);
+					futures.add(executor.submit(new Runnable() {
+						@Override
+						public void run() {
+							taskStatistics.start();
+							analysisTask.analyze();
+							// The task's follow-ups are known once it is solved
+							taskStatistics.end(analysisTask.nextTasks().size());
+							statistics.add(taskStatistics);
+						}
+					}));
+				}
+				// Failed tasks are neither computed nor followed up
+				Set<AnalysisTask> failed = new HashSet<AnalysisTask>();
+				for (int i = 0; i < futures.size(); i++) {
+					try {
+						futures.get(i).get();
+					} catch (ExecutionException e) {
+						failed.add(batch.get(i));
+						LOGGER.error("Task " + batch.get(i).getTask() + " failed : " + e.getCause());
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
 				}
+				statistics.addBatch(batch.get(0).getTask().getLayer(), loadedClasses() - classesAtStart);
+				if (isCancelled())
+					break;
+				jumpFunctions.trim();
+
+				// Follow-up tasks are queued in the same order as sequentially
+				for (AnalysisTask analysisTask : batch) {
+					if (failed.contains(analysisTask))
+						continue;
+					computedTasks.setComputed(analysisTask.getTask());
+					taskQueue.addAll(analysisTask.nextTasks());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Tasks of the same layer whose required tasks have all been computed.
+	// Class loading (constructors and requiredTasks) stays on this thread.
+	private List<AnalysisTask> nextBatch() {
+		List<AnalysisTask> batch = new ArrayList<AnalysisTask>();
+		Set<Task> batchedTasks = new HashSet<Task>();
+		Layer batchLayer = null;
+
+		while (!taskQueue.isEmpty() && batch.size() < Config.taskThreads) {
+			Task task = taskQueue.peek();
+			if (batchLayer != null && task.getLayer() != batchLayer)
+				break;
+			taskQueue.poll();
+			if (computedTasks.isComputed(task) || batchedTasks.contains(task)) {
+				// Cancel task
+				continue;
 			}
+			if (prefetcher != null)
+				prefetcher.prefetch(task);
+
+			AnalysisTask analysisTask = Layer.createAnalysisTask(task, app, projectInformation);
+			analysisTask.setReporter(reporter);
+			analysisTask.setLibrarySummaries(librarySummaries);
+			analysisTask.setCancellationToken(cancellation);
+			analysisTask.setSourceSinkClassification(sourceSinks);
+			analysisTask.setTypeResolver(typeResolver);
+			analysisTask.setProjectOverrides(projectOverrides);
+			// The solvers of a batch share the cores
+			analysisTask.setSolverThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / Config.taskThreads));
+			analysisTask.setAnalysisInfo(jumpFunctions, endSum, inc, icfg);
+			Set<Task> remainingRequiredTasks = notYetExecuted(analysisTask.requiredTasks());
+
+			if (remainingRequiredTasks.isEmpty()) {
+				batch.add(analysisTask);
+				batchedTasks.add(task);
+				batchLayer = task.getLayer();
+			} else {
+				taskQueue.add(task); // push
+				for (Task remainingTask : remainingRequiredTasks)
+					taskQueue.reschedule(remainingTask); // push
+				break;
+			}
+		}
+		return batch;
+	}
+
+	// Under the Scene lock, as worker threads load classes
+	private int loadedClasses() {
+		synchronized (Scene.v()) {
+			return Scene.v().getClasses().size();
 		}
 	}
 
 	private Set<Task> notYetExecuted(Set<Task> requiredTasks) {
 		Set<Task> remainingTasks = new HashSet<Task>();
 		for (Task task : requiredTasks)
-			if (!computedTasks.contains(task))
+			if (!computedTasks.isComputed(task))
 				remainingTasks.add(task);
 		return remainingTasks;
 	}
@@ -0,0 +1,426 @@
+package layeredtaintplugin.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soot.Scene;
+import soot.SootMethod;
+import soot.SourceLocator;
+
+/**
+ * Summaries of library and framework methods kept on disk across runs and
+ * sessions. A class's summaries are valid as long as the checksum of its
+ * class file is unchanged. The file is memory-mapped and a class record is
+ * only decoded when one of its methods is looked up. A mapped file cannot be
+ * replaced on every platform, so each flush writes a new generation of the
+ * file (file.1, file.2, ...) and switches to it; older generations are
+ * deleted once they are no longer mapped.
+ */
+public class LibrarySummaryStore {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(LibrarySummaryStore.class);
+
+	private static final int MAGIC = 0x4c53554d;
+	// Bump when the flow rules of AnalysisTask.taintApi change
+	private static final int VERSION = 1;
+
+	private final File file;
+	// Generation mapped, 0 for the file itself
+	private int generation = 0;
+	private MappedByteBuffer buffer = null;
+	// Position of each class record in the mapped file
+	private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+	// Records decoded or added in this session
+	private final Map<String, ClassSummary> classes = new HashMap<String, ClassSummary>();
+	private boolean dirty = false;
+
+	// Class file checksums and archives of the current run
+	private final Map<String, Long> checksums = new HashMap<String, Long>();
+	private final Map<String, ZipFile> archives = new HashMap<String, ZipFile>();
+
+	public LibrarySummaryStore(File file) {
+		this.file = file;
+		this.generation = latestGeneration();
+		map();
+		deleteOldGenerations();
+	}
+
+	/***** Lookup *****/
+
+	public synchronized MethodSummary get(SootMethod m) {
+		String className = m.getDeclaringClass().getName();
+		Long checksum = checksum(className);
+		if (checksum == null)
+			return null;
+		ClassSummary classSummary = classSummary(className);
+		if (classSummary == null || classSummary.checksum != checksum)
+			return null;
+		return classSummary.methods.get(m.getSubSignature());
+	}
+
+	public synchronized void put(SootMethod m, MethodSummary summary) {
+		String className = m.getDeclaringClass().getName();
+		Long checksum = checksum(className);
+		if (checksum == null)
+			return;
+		ClassSummary classSummary = classSummary(className);
+		if (classSummary == null || classSummary.checksum != checksum) {
+			// Class file changed: forget its old summaries
+			classSummary = new ClassSummary(checksum);
+			classes.put(className, classSummary);
+		}
+		MethodSummary known = classSummary.methods.get(m.getSubSignature());
+		if (known == null)
+			classSummary.methods.put(m.getSubSignature(), summary);
+		else if (!known.merge(summary))
+			return;
+		dirty = true;
+	}
+
+	private ClassSummary classSummary(String className) {
+		ClassSummary classSummary = classes.get(className);
+		if (classSummary == null && offsets.containsKey(className)) {
+			classSummary = read(offsets.get(className));
+			if (classSummary != null)
+				classes.put(className, classSummary);
+		}
+		return classSummary;
+	}
+
+	/***** Checksums *****/
+
+	private Long checksum(String className) {
+		if (checksums.containsKey(className))
+			return checksums.get(className);
+		Long checksum = null;
+		try {
+			checksum = computeChecksum(className);
+		} catch (IOException e) {
+			LOGGER.error("Could not compute checksum of " + className + " : " + e.getMessage());
+		}
+		checksums.put(className, checksum);
+		return checksum;
+	}
+
+	// CRC of the first class file found on the Soot classpath, null if the
+	// class does not come from a class file
+	private Long computeChecksum(String className) throws IOException {
+		String entryName = className.replace('.', '/') + ".class";
+		for (String path : SourceLocator.explodeClassPath(Scene.v().getSootClassPath())) {
+			File location = new File(path);
+			if (location.isDirectory()) {
+				File classFile = new File(location, entryName);
+				if (classFile.isFile()) {
+					CRC32 crc = new CRC32();
+					crc.update(Files.readAllBytes(classFile.toPath()));
+					return crc.getValue();
+				}
+			} else if (location.isFile() && (path.endsWith(".jar") || path.endsWith(".zip"))) {
+				ZipEntry entry = archive(path).getEntry(entryName);
+				if (entry != null)
+					return entry.getCrc() == -1 ? null : entry.getCrc();
+			}
+		}
+		return null;
+	}
+
+	private ZipFile archive(String path) throws IOException {
+		ZipFile zip = archives.get(path);
+		if (zip == null) {
+			zip = new ZipFile(path);
+			archives.put(path, zip);
+		}
+		return zip;
+	}
+
+	/***** File *****/
+
+	// Write the store back to disk. Called at the end of each run.
+	public synchronized void flush() {
+		closeArchives();
+		checksums.clear();
+		if (!dirty)
+			return;
+
+		// Records never looked up are copied over as well
+		for (String className : offsets.keySet())
+			classSummary(className);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		File next = generationFile(generation + 1);
+		try {
+			file.getAbsoluteFile().getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				for (Entry<String, ClassSummary> entry : classes.entrySet()) {
+					byte[] record = write(entry.getKey(), entry.getValue());
+					out.writeInt(record.length);
+					out.write(record);
+				}
+			} finally {
+				out.close();
+			}
+			// The mapped generation is left alone
+			Files.move(tmp.toPath(), next.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			generation++;
+			dirty = false;
+		} catch (IOException e) {
+			LOGGER.error("Could not write library summaries to " + next + " : " + e.getMessage());
+			return;
+		}
+		map();
+		deleteOldGenerations();
+	}
+
+	private void map() {
+		offsets.clear();
+		classes.clear();
+		buffer = null;
+		File current = generationFile(generation);
+		if (!current.isFile())
+			return;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(current, "r");
+			try {
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			} finally {
+				raf.close();
+			}
+			if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				LOGGER.info("Ignoring outdated library summaries " + current);
+				buffer = null;
+				return;
+			}
+			while (buffer.remaining() >= 4) {
+				int length = buffer.getInt();
+				int offset = buffer.position();
+				offsets.put(readClassName(offset), offset - 4);
+				buffer.position(offset + length);
+			}
+			LOGGER.info("Library summaries available for " + offsets.size() + " classes");
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Could not read library summaries from " + current + " : " + e.getMessage());
+			offsets.clear();
+			buffer = null;
+		}
+	}
+
+	private File generationFile(int generation) {
+		return generation == 0 ? file : new File(file.getPath() + "." + generation);
+	}
+
+	private int latestGeneration() {
+		int latest = 0;
+		File[] siblings = file.getAbsoluteFile().getParentFile().listFiles();
+		if (siblings == null)
+			return latest;
+		for (File sibling : siblings) {
+			int g = generationOf(sibling);
+			if (g > latest)
+				latest = g;
+		}
+		return latest;
+	}
+
+	// Generation of a file of the store, -1 for other files
+	private int generationOf(File sibling) {
+		String prefix = file.getName() + ".";
+		if (sibling.getName().equals(file.getName()))
+			return 0;
+		if (!sibling.getName().startsWith(prefix))
+			return -1;
+		try {
+			return Integer.parseInt(sibling.getName().substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	// Generations still mapped by this or another session fail to delete,
+	// they are retried on the next flush
+	private void deleteOldGenerations() {
+		File[] siblings = file.getAbsoluteFile().getParentFile().listFiles();
+		if (siblings == null)
+			return;
+		for (File sibling : siblings) {
+			int g = generationOf(sibling);
+			if (g >= 0 && g < generation && !sibling.delete())
+				LOGGER.debug("Could not delete old library summaries " + sibling);
+		}
+	}
+
+	private String readClassName(int offset) throws IOException {
+		int length = ((buffer.get(offset) & 0xff) << 8) | (buffer.get(offset + 1) & 0xff);
+		return new DataInputStream(new ByteArrayInputStream(bytes(offset, length + 2))).readUTF();
+	}
+
+	private ClassSummary read(int offset) {
+		try {
+			int length = buffer.getInt(offset);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes(offset + 4, length)));
+			in.readUTF();
+			ClassSummary classSummary = new ClassSummary(in.readLong());
+			int methodCount = in.readInt();
+			for (int i = 0; i < methodCount; i++) {
+				String subSignature = in.readUTF();
+				MethodSummary summary = new MethodSummary();
+				int slotCount = in.readInt();
+				for (int j = 0; j < slotCount; j++)
+					summary.slots.add((int) in.readByte());
+				int flowCount = in.readInt();
+				for (int j = 0; j < flowCount; j++)
+					summary.addFlow(in.readByte(), in.readByte());
+				int targetCount = in.readInt();
+				for (int j = 0; j < targetCount; j++)
+					summary.targets.add(in.readUTF());
+				classSummary.methods.put(subSignature, summary);
+			}
+			return classSummary;
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Corrupted library summary record at " + offset + " : " + e.getMessage());
+			return null;
+		}
+	}
+
+	private byte[] write(String className, ClassSummary classSummary) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(className);
+		out.writeLong(classSummary.checksum);
+		out.writeInt(classSummary.methods.size());
+		for (Entry<String, MethodSummary> entry : classSummary.methods.entrySet()) {
+			MethodSummary summary = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeInt(summary.slots.size());
+			for (int slot : summary.slots)
+				out.writeByte(slot);
+			int flowCount = 0;
+			for (Set<Integer> outSlots : summary.flows.values())
+				flowCount += outSlots.size();
+			out.writeInt(flowCount);
+			for (Entry<Integer, Set<Integer>> flow : summary.flows.entrySet()) {
+				for (int outSlot : flow.getValue()) {
+					out.writeByte(flow.getKey());
+					out.writeByte(outSlot);
+				}
+			}
+			out.writeInt(summary.targets.size());
+			for (String target : summary.targets)
+				out.writeUTF(target);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private byte[] bytes(int offset, int length) {
+		byte[] res = new byte[length];
+		for (int i = 0; i < length; i++)
+			res[i] = buffer.get(offset + i);
+		return res;
+	}
+
+	private void closeArchives() {
+		for (ZipFile zip : archives.values()) {
+			try {
+				zip.close();
+			} catch (IOException e) {
+				LOGGER.error("Could not close " + zip.getName());
+			}
+		}
+		archives.clear();
+	}
+
+	/***** Records *****/
+
+	private static class ClassSummary {
+
+		private final long checksum;
+		private final Map<String, MethodSummary> methods = new HashMap<String, MethodSummary>();
+
+		public ClassSummary(long checksum) {
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * Flows of a library method between the base object (BASE), its
+	 * arguments (0..n) and the returned value (RETURN), and the library
+	 * methods a call to it may dispatch to.
+	 */
+	public static class MethodSummary {
+
+		public static final int BASE = -1;
+		public static final int RETURN = -2;
+
+		// Input slots the flows have been computed for
+		private final Set<Integer> slots = new HashSet<Integer>();
+		private final Map<Integer, Set<Integer>> flows = new HashMap<Integer, Set<Integer>>();
+		private final Set<String> targets = new HashSet<String>();
+
+		public void addSlot(int slot) {
+			slots.add(slot);
+		}
+
+		public void addFlow(int inSlot, int outSlot) {
+			Set<Integer> outSlots = flows.get(inSlot);
+			if (outSlots == null) {
+				outSlots = new HashSet<Integer>();
+				flows.put(inSlot, outSlots);
+			}
+			outSlots.add(outSlot);
+		}
+
+		public void addTarget(SootMethod target) {
+			targets.add(target.getSignature());
+		}
+
+		public boolean covers(Set<Integer> inSlots) {
+			return slots.containsAll(inSlots);
+		}
+
+		public Set<Integer> flowsFrom(int inSlot) {
+			Set<Integer> outSlots = flows.get(inSlot);
+			return outSlots == null ? new HashSet<Integer>() : outSlots;
+		}
+
+		public Set<String> getTargets() {
+			return targets;
+		}
+
+		// Returns true if something was added
+		private boolean merge(MethodSummary other) {
+			boolean changed = slots.addAll(other.slots) | targets.addAll(other.targets);
+			for (Entry<Integer, Set<Integer>> flow : other.flows.entrySet())
+				for (int outSlot : flow.getValue())
+					if (!flowsFrom(flow.getKey()).contains(outSlot)) {
+						addFlow(flow.getKey(), outSlot);
+						changed = true;
+					}
+			return changed;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package layeredtaintplugin.internal;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from long keys to non-negative int values, without
+ * boxing. Entries cannot be removed, only all at once. Not thread-safe.
+ */
+final class LongIntMap {
+
+	static final int MISSING = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	LongIntMap() {
+		this(4);
+	}
+
+	LongIntMap(int expected) {
+		int capacity = 4;
+		while (capacity * 3 < expected * 4)
+			capacity <<= 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, MISSING);
+	}
+
+	int get(long key) {
+		int mask = keys.length - 1;
+		for (int i = index(key, mask);; i = (i + 1) & mask) {
+			if (values[i] == MISSING)
+				return MISSING;
+			if (keys[i] == key)
+				return values[i];
+		}
+	}
+
+	void put(long key, int value) {
+		if ((size + 1) * 4 > keys.length * 3)
+			grow();
+		if (insert(keys, values, key, value))
+			size++;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		Arrays.fill(values, MISSING);
+		size = 0;
+	}
+
+	/***** Table *****/
+
+	// True if the key is new
+	private static boolean insert(long[] keys, int[] values, long key, int value) {
+		int mask = keys.length - 1;
+		for (int i = index(key, mask);; i = (i + 1) & mask) {
+			if (values[i] == MISSING) {
+				keys[i] = key;
+				values[i] = value;
+				return true;
+			}
+			if (keys[i] == key) {
+				values[i] = value;
+				return false;
+			}
+		}
+	}
+
+	private void grow() {
+		long[] newKeys = new long[keys.length * 2];
+		int[] newValues = new int[values.length * 2];
+		Arrays.fill(newValues, MISSING);
+		for (int i = 0; i < keys.length; i++)
+			if (values[i] != MISSING)
+				insert(newKeys, newValues, keys[i], values[i]);
+		keys = newKeys;
+		values = newValues;
+	}
+
+	private static int index(long key, int mask) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+}
@@ -0,0 +1,97 @@
+package layeredtaintplugin.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import heros.FlowFunction;
+import heros.FlowFunctions;
+import heros.solver.Pair;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Flow functions of a task, built once per statement (and callee) and kept
+ * as long as the task. The rules of AnalysisTask use neither the successor
+ * of a normal statement nor the return site of a call, so they are not part
+ * of the keys.
+ *
+ * Building a call-to-return function creates the tasks of the call, it is
+ * done under a lock so that the function and the task hold the same tasks.
+ */
+public class MemoizedFlowFunctions implements FlowFunctions<Unit, FlowAbstraction, SootMethod> {
+
+	private final FlowFunctions<Unit, FlowAbstraction, SootMethod> delegate;
+
+	private final Map<Unit, FlowFunction<FlowAbstraction>> normal = new ConcurrentHashMap<Unit, FlowFunction<FlowAbstraction>>();
+	private final Map<Pair<Unit, SootMethod>, FlowFunction<FlowAbstraction>> call = new ConcurrentHashMap<Pair<Unit, SootMethod>, FlowFunction<FlowAbstraction>>();
+	private final Map<Pair<Unit, Unit>, FlowFunction<FlowAbstraction>> ret = new ConcurrentHashMap<Pair<Unit, Unit>, FlowFunction<FlowAbstraction>>();
+	private final Map<Unit, FlowFunction<FlowAbstraction>> callToReturn = new ConcurrentHashMap<Unit, FlowFunction<FlowAbstraction>>();
+
+	public MemoizedFlowFunctions(FlowFunctions<Unit, FlowAbstraction, SootMethod> delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public FlowFunction<FlowAbstraction> getNormalFlowFunction(Unit curr, Unit succ) {
+		FlowFunction<FlowAbstraction> f = normal.get(curr);
+		if (f == null) {
+			synchronized (normal) {
+				f = normal.get(curr);
+				if (f == null) {
+					f = delegate.getNormalFlowFunction(curr, succ);
+					normal.put(curr, f);
+				}
+			}
+		}
+		return f;
+	}
+
+	@Override
+	public FlowFunction<FlowAbstraction> getCallFlowFunction(Unit callStmt, SootMethod destinationMethod) {
+		Pair<Unit, SootMethod> key = new Pair<Unit, SootMethod>(callStmt, destinationMethod);
+		FlowFunction<FlowAbstraction> f = call.get(key);
+		if (f == null) {
+			synchronized (call) {
+				f = call.get(key);
+				if (f == null) {
+					f = delegate.getCallFlowFunction(callStmt, destinationMethod);
+					call.put(key, f);
+				}
+			}
+		}
+		return f;
+	}
+
+	// The exit statement determines the callee
+	@Override
+	public FlowFunction<FlowAbstraction> getReturnFlowFunction(Unit callSite, SootMethod calleeMethod,
+			Unit exitStmt, Unit returnSite) {
+		Pair<Unit, Unit> key = new Pair<Unit, Unit>(callSite, exitStmt);
+		FlowFunction<FlowAbstraction> f = ret.get(key);
+		if (f == null) {
+			synchronized (ret) {
+				f = ret.get(key);
+				if (f == null) {
+					f = delegate.getReturnFlowFunction(callSite, calleeMethod, exitStmt, returnSite);
+					ret.put(key, f);
+				}
+			}
+		}
+		return f;
+	}
+
+	@Override
+	public FlowFunction<FlowAbstraction> getCallToReturnFlowFunction(Unit callSite, Unit returnSite) {
+		FlowFunction<FlowAbstraction> f = callToReturn.get(callSite);
+		if (f == null) {
+			synchronized (callToReturn) {
+				f = callToReturn.get(callSite);
+				if (f == null) {
+					f = delegate.getCallToReturnFlowFunction(callSite, returnSite);
+					callToReturn.put(callSite, f);
+				}
+			}
+		}
+		return f;
+	}
+}
@@ -4,12 +4,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
@@ -48,6 +52,14 @@ public class PrepareAnalysis {
 
 	private LinkedList<Pair<IMethod, IJavaProject>> startPoints = new LinkedList<Pair<IMethod, IJavaProject>>();
 	private boolean currentlyComputing = false;
+	// Token of the run in progress, cancelled when a new start point comes in
+	private CancellationToken currentRun = null;
+	// Summaries kept per project (Config.incrementalAnalysis)
+	private final Map<String, IncrementalSummaries> summaries = new HashMap<String, IncrementalSummaries>();
+	// Soot scenes kept per project (Config.warmScene)
+	private final Map<String, WarmScene> scenes = new HashMap<String, WarmScene>();
+	// Library summaries of the workspace (Config.librarySummaries)
+	private LibrarySummaryStore librarySummaries = null;
 
 	public void prepareAnalysis(final IMethod method, final IJavaProject project) {
 		synchronized (this) {
@@ -55,8 +67,8 @@ public class PrepareAnalysis {
 			startPoints.add(new Pair<IMethod, IJavaProject>(method, project));
 			if (!currentlyComputing)
 				analyse();
-			else
-				G.reset();
+			else if (currentRun != null)
+				currentRun.cancel();
 		}
 	}
 
@@ -68,21 +80,23 @@ public class PrepareAnalysis {
 			protected IStatus run(IProgressMonitor monitor) {
 
 				while (!startPoints.isEmpty()) {
-					Pair<IMethod, IJavaProject> startPoint = startPoints.poll();
+					Pair<IMethod, IJavaProject> startPoint;
+					CancellationToken cancellation = new CancellationToken();
+					synchronized (PrepareAnalysis.this) {
+						startPoint = startPoints.poll();
+						currentRun = cancellation;
+					}
 					if (startPoint != null) {
 						ExecutorService executor = Executors.newSingleThreadExecutor();
-						Future<?> future = executor
-								.submit(new FullAnalysisTask(startPoint.getO1(), startPoint.getO2()));
-						try {
-							future.get();
-						} catch (Exception e) {
-							future.cancel(true);
-							LOGGER.error("Aborted future : " + e.getMessage());
-							e.printStackTrace();
-						}
+						Future<?> future = executor.submit(
+								new FullAnalysisTask(startPoint.getO1(), startPoint.getO2(), cancellation));
+						waitFor(future, cancellation, monitor);
 						executor.shutdownNow();
 					}
 				}
+				synchronized (PrepareAnalysis.this) {
+					currentRun = null;
+				}
 				currentlyComputing = false;
 				return Status.OK_STATUS;
 			}
@@ -90,14 +104,41 @@ public class PrepareAnalysis {
 		job.schedule();
 	}
 
+	// Waits for the run to finish. A cancelled run which does not stop in
+	// time has Soot reset underneath it.
+	private void waitFor(Future<?> future, CancellationToken cancellation, IProgressMonitor monitor) {
+		while (true) {
+			try {
+				future.get(Config.cancellationPollInterval, TimeUnit.MILLISECONDS);
+				return;
+			} catch (TimeoutException e) {
+				if (monitor.isCanceled())
+					cancellation.cancel();
+				if (cancellation.timeSinceCancel() > TimeUnit.MILLISECONDS.toNanos(Config.cancellationTimeout)) {
+					LOGGER.error("Run did not stop within " + Config.cancellationTimeout + " ms, resetting Soot");
+					future.cancel(true);
+					G.reset();
+					return;
+				}
+			} catch (Exception e) {
+				future.cancel(true);
+				LOGGER.error("Aborted future : " + e.getMessage());
+				e.printStackTrace();
+				return;
+			}
+		}
+	}
+
 	class FullAnalysisTask implements Runnable {
 
 		private final IMethod method;
 		private final IJavaProject project;
+		private final CancellationToken cancellation;
 
-		public FullAnalysisTask(IMethod method, IJavaProject project) {
+		public FullAnalysisTask(IMethod method, IJavaProject project, CancellationToken cancellation) {
 			this.method = method;
 			this.project = project;
+			this.cancellation = cancellation;
 		}
 
 		@Override
@@ -116,21 +157,23 @@ public class PrepareAnalysis {
 				ExperimentalConfiguration config = new ExperimentalConfiguration(sootMethodSignature,
 						project.getElementName(), apkPath, projectClasses, sootCP);
 
-				SetupApplicationJIT app = new SetupApplicationJIT(config.getApk(), config.getSootCP(),
-						Activator.getDefault().getSusiParser());
-				app.initializeSoot();
+				SetupApplicationJIT app = getApplication(config);
 				LOGGER.info("Retrieveing starting point " + config.getStartPoint());
 
 				String startClass = config.getStartPoint().substring(1, config.getStartPoint().indexOf(":"));
 				SootClass sc = Scene.v().loadClassAndSupport(startClass);
-				if (!sc.isPhantom()) {
+				if (!sc.isPhantom() && !cancellation.isCancelled()) {
 					SootMethod sm = Scene.v().getMethod(config.getStartPoint());
 					if (!sm.isAbstract() && !sm.isNative()) {
 						LOGGER.info("Starting point found: " + sm);
 						config.setStartSootMethod(sm);
 						Reporter reporter = new Reporter(runId, config.getStartSootMethod(), project);
-						LayeredAnalysis la = new LayeredAnalysis(reporter, app, config.getProjectClasses());
+						LayeredAnalysis la = new LayeredAnalysis(reporter, app, config.getProjectClasses(),
+								getSummaries(config.getName()));
+						la.setLibrarySummaries(getLibrarySummaries());
+						la.setCancellationToken(cancellation);
 						la.startAnalysis();
+						showStatistics(la.getStatistics());
 					}
 				}
 			} catch (IOException e) {
@@ -143,6 +186,50 @@ public class PrepareAnalysis {
 		}
 	}
 
+	private SetupApplicationJIT getApplication(ExperimentalConfiguration config) {
+		if (!Config.warmScene) {
+			SetupApplicationJIT app = new SetupApplicationJIT(config.getApk(), config.getSootCP(),
+					Activator.getDefault().getSusiParser());
+			app.initializeSoot();
+			return app;
+		}
+		WarmScene scene;
+		synchronized (this) {
+			scene = scenes.get(config.getName());
+			if (scene == null || !scene.isFor(config.getApk(), config.getSootCP())) {
+				scene = new WarmScene(config.getApk(), config.getSootCP());
+				scenes.put(config.getName(), scene);
+			}
+		}
+		return scene.prepare(Activator.getDefault().getSusiParser(), Activator.getDefault().getAndroidCallbacks());
+	}
+
+	private synchronized IncrementalSummaries getSummaries(String projectId) {
+		if (!Config.incrementalAnalysis)
+			return null;
+		// A cold run resets Soot, the tables would refer to the old scene
+		if (!Config.warmScene) {
+			LOGGER.warn("Incremental analysis needs the warm scene, running from scratch");
+			return null;
+		}
+		IncrementalSummaries projectSummaries = summaries.get(projectId);
+		if (projectSummaries == null) {
+			projectSummaries = new IncrementalSummaries();
+			summaries.put(projectId, projectSummaries);
+		}
+		return projectSummaries;
+	}
+
+	private synchronized LibrarySummaryStore getLibrarySummaries() {
+		if (!Config.librarySummaries)
+			return null;
+		if (librarySummaries == null) {
+			File file = Activator.getDefault().getStateLocation().append(Config.librarySummariesFile).toFile();
+			librarySummaries = new LibrarySummaryStore(file);
+		}
+		return librarySummaries;
+	}
+
 	/***** View *****/
 
 	public void removeWarnings(int runId) {
@@ -158,6 +245,21 @@ public class PrepareAnalysis {
 		});
 	}
 
+	private void showStatistics(final AnalysisStatistics statistics) {
+		LOGGER.info(statistics.toSummary());
+		Display.getDefault().asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (this) {
+					OverviewView view = (OverviewView) PlatformUI.getWorkbench().getActiveWorkbenchWindow()
+							.getActivePage().findView(Config.OVERVIEW_ID);
+					if (view != null)
+						view.setStatistics(statistics);
+				}
+			}
+		});
+	}
+
 	private void invalidateWarnings() {
 		Display.getDefault().asyncExec(new Runnable() {
 			@Override
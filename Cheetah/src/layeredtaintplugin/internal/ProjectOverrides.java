@@ -0,0 +1,110 @@
+package layeredtaintplugin.internal;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.util.Chain;
+
+/**
+ * Methods declared by the loaded project classes, by sub-signature, to tell
+ * whether a library summary may be applied at a call. Nothing is loaded for
+ * the index: as in IncrementalHierarchy, a refresh only indexes the classes
+ * appended to the scene's class chain since the last one, and project
+ * classes seen below the signatures level are checked again on every
+ * refresh. Overrides in classes the layers have not loaded yet are found
+ * once a layer loads them.
+ */
+public class ProjectOverrides {
+
+	private final ProjectInformation projectInformation;
+
+	private Scene scene = null;
+	// Last class of the chain already indexed
+	private SootClass last = null;
+
+	// Project classes by the sub-signatures they declare
+	private final Map<String, Set<SootClass>> declaringClasses = new HashMap<String, Set<SootClass>>();
+	// Project classes seen before their signatures were resolved
+	private final Set<SootClass> pending = new HashSet<SootClass>();
+
+	public ProjectOverrides(ProjectInformation projectInformation) {
+		this.projectInformation = projectInformation;
+	}
+
+	// Could a loaded project class override the library method?
+	public synchronized boolean overrides(SootMethod m) {
+		refresh();
+		Set<SootClass> classes = declaringClasses.get(m.getSubSignature());
+		if (classes == null)
+			return false;
+		synchronized (Scene.v()) {
+			for (SootClass sc : classes)
+				if (isSubclassOf(sc, m.getDeclaringClass()))
+					return true;
+		}
+		return false;
+	}
+
+	/***** Maintenance *****/
+
+	private void refresh() {
+		synchronized (Scene.v()) {
+			Chain<SootClass> classes = Scene.v().getClasses();
+			if (scene != Scene.v() || (last != null && !classes.contains(last))) {
+				declaringClasses.clear();
+				pending.clear();
+				last = null;
+				scene = Scene.v();
+			}
+			for (Iterator<SootClass> pit = pending.iterator(); pit.hasNext();) {
+				SootClass sc = pit.next();
+				if (sc.resolvingLevel() >= SootClass.SIGNATURES) {
+					pit.remove();
+					add(sc);
+				}
+			}
+
+			if (classes.isEmpty() || last == classes.getLast())
+				return;
+			Iterator<SootClass> it = last == null ? classes.iterator() : classes.iterator(classes.getSuccOf(last));
+			while (it.hasNext()) {
+				SootClass sc = it.next();
+				if (projectInformation.projectClasses().contains(sc.getName()))
+					add(sc);
+			}
+			last = classes.getLast();
+		}
+	}
+
+	private void add(SootClass sc) {
+		if (sc.resolvingLevel() < SootClass.SIGNATURES) {
+			pending.add(sc);
+			return;
+		}
+		for (SootMethod m : sc.getMethods()) {
+			Set<SootClass> classes = declaringClasses.get(m.getSubSignature());
+			if (classes == null) {
+				classes = new HashSet<SootClass>();
+				declaringClasses.put(m.getSubSignature(), classes);
+			}
+			classes.add(sc);
+		}
+	}
+
+	private static boolean isSubclassOf(SootClass sc, SootClass superClass) {
+		if (sc == superClass)
+			return true;
+		if (sc.hasSuperclass() && isSubclassOf(sc.getSuperclass(), superClass))
+			return true;
+		for (SootClass itf : sc.getInterfaces())
+			if (isSubclassOf(itf, superClass))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,284 @@
+package layeredtaintplugin.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Append-only, memory-mapped log of the derivation of facts
+ * (Config.provenanceLog). Each fact created is a fixed-size record: the id
+ * of its predecessor, its key, source and method. Facts only keep their own
+ * id and that of their predecessor, so predecessor chains are no longer
+ * reachable in the heap; PathFinder reads them back from the log.
+ *
+ * Records refer to keys, units and methods by number; these objects are
+ * held in tables as long as the log. A log lives as long as the IFDS tables
+ * whose facts it records: it is restarted when IncrementalSummaries creates
+ * new tables, i.e. at each run unless summaries are reused, and when the
+ * Soot scene changes. The previous log is closed and deleted; its facts then
+ * no longer have a history, and their predecessor is the zero fact.
+ */
+public class ProvenanceLog {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(ProvenanceLog.class);
+
+	// predecessor (8), key (4), predecessor key (4), source (4), method (4)
+	private static final int RECORD_SIZE = 24;
+	private static final int SEGMENT_RECORDS = 1 << 20;
+
+	static final long NO_FACT = -1;
+	static final long ZERO_FACT = -2;
+	private static final int NONE = -1;
+
+	private static volatile ProvenanceLog current = null;
+
+	private final Scene scene;
+	private final File file;
+	private final FileChannel channel;
+	private volatile boolean closed = false;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private final AtomicLong nextId = new AtomicLong();
+
+	// Keys, units and methods by number
+	private final Map<Object, Integer> numbers = new ConcurrentHashMap<Object, Integer>();
+	private Object[] objects = new Object[1024];
+	private int objectCount = 0;
+
+	// Neighbours by fact, most facts have none
+	private final ConcurrentMap<Long, Set<Long>> neighbours = new ConcurrentHashMap<Long, Set<Long>>();
+
+	private ProvenanceLog(Scene scene) throws IOException {
+		this.scene = scene;
+		this.file = File.createTempFile("provenance", ".log");
+		this.file.deleteOnExit();
+		this.channel = new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	// Log of the current scene, a new scene starts a new log
+	public static ProvenanceLog v() {
+		ProvenanceLog log = current;
+		if (log != null && log.scene == Scene.v())
+			return log;
+		synchronized (ProvenanceLog.class) {
+			if (current == null || current.scene != Scene.v()) {
+				if (current != null)
+					current.close();
+				try {
+					current = new ProvenanceLog(Scene.v());
+				} catch (IOException e) {
+					throw new RuntimeException("Could not create provenance log: " + e.getMessage(), e);
+				}
+				LOGGER.info("Provenance log in " + current.file);
+			}
+			return current;
+		}
+	}
+
+	// Facts logged so far are no longer reachable, the next one starts a new
+	// log
+	public static synchronized void restart() {
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+	}
+
+	/***** Facts *****/
+
+	FlowAbstraction append(Unit source, FactKey key, SootMethod method, FlowAbstraction predecessor) {
+		long predecessorId = idOf(predecessor);
+		FactKey predecessorKey = predecessor == null ? null : predecessor.getKey();
+
+		long id = nextId.getAndIncrement();
+		MappedByteBuffer segment = segment(id);
+		int offset = (int) (id % SEGMENT_RECORDS) * RECORD_SIZE;
+		segment.putLong(offset, predecessorId);
+		segment.putInt(offset + 8, number(key));
+		segment.putInt(offset + 12, number(predecessorKey));
+		segment.putInt(offset + 16, number(source));
+		segment.putInt(offset + 20, number(method));
+		return new LoggedFlowAbstraction(this, id, source, key, method, predecessorId, predecessorKey);
+	}
+
+	// A closed log reads as the zero fact, which ends the walks of the path
+	// finders still running on its facts
+	FlowAbstraction read(long id) {
+		if (id == NO_FACT)
+			return null;
+		if (id == ZERO_FACT || closed)
+			return FlowAbstraction.zeroAbstraction();
+		MappedByteBuffer segment;
+		try {
+			segment = segment(id);
+		} catch (IllegalStateException e) {
+			return FlowAbstraction.zeroAbstraction();
+		}
+		int offset = (int) (id % SEGMENT_RECORDS) * RECORD_SIZE;
+		long predecessorId = segment.getLong(offset);
+		FactKey key = (FactKey) object(segment.getInt(offset + 8));
+		FactKey predecessorKey = (FactKey) object(segment.getInt(offset + 12));
+		Unit source = (Unit) object(segment.getInt(offset + 16));
+		SootMethod method = (SootMethod) object(segment.getInt(offset + 20));
+		// Closed while reading, the objects may be gone
+		if (closed)
+			return FlowAbstraction.zeroAbstraction();
+		return new LoggedFlowAbstraction(this, id, source, key, method, predecessorId, predecessorKey);
+	}
+
+	long idOf(FlowAbstraction fa) {
+		if (fa == null)
+			return NO_FACT;
+		if (fa instanceof LoggedFlowAbstraction && ((LoggedFlowAbstraction) fa).log == this)
+			return ((LoggedFlowAbstraction) fa).id;
+		// The zero value, or a fact of an earlier log whose history is gone
+		return ZERO_FACT;
+	}
+
+	/***** Neighbours *****/
+
+	void addNeighbour(long id, FlowAbstraction neighbour) {
+		Set<Long> res = neighbours.get(id);
+		if (res == null) {
+			Set<Long> newSet = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+			res = neighbours.putIfAbsent(id, newSet);
+			if (res == null)
+				res = newSet;
+		}
+		res.add(idOf(neighbour));
+	}
+
+	Set<FlowAbstraction> neighbours(long id) {
+		Set<Long> ids = neighbours.get(id);
+		if (ids == null || closed)
+			return Collections.emptySet();
+		Set<FlowAbstraction> res = new HashSet<FlowAbstraction>();
+		for (Long neighbourId : ids)
+			res.add(read(neighbourId));
+		return res;
+	}
+
+	/***** Storage *****/
+
+	// Mappings are released with the segments, readers holding one keep
+	// a valid buffer until they drop it
+	private synchronized void close() {
+		closed = true;
+		segments = new MappedByteBuffer[0];
+		numbers.clear();
+		objects = new Object[0];
+		objectCount = 0;
+		neighbours.clear();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.warn("Could not close provenance log " + file + ": " + e.getMessage());
+		}
+		// Fails on Windows while a mapping is alive, deleteOnExit is left
+		if (!file.delete())
+			LOGGER.debug("Provenance log " + file + " deleted on exit");
+	}
+
+	private MappedByteBuffer segment(long id) {
+		int index = (int) (id / SEGMENT_RECORDS);
+		MappedByteBuffer[] res = segments;
+		if (index < res.length)
+			return res[index];
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("Provenance log " + file + " is closed");
+			res = segments;
+			if (index >= res.length) {
+				MappedByteBuffer[] grown = Arrays.copyOf(res, index + 1);
+				try {
+					for (int i = res.length; i <= index; i++)
+						grown[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+								(long) i * SEGMENT_RECORDS * RECORD_SIZE, (long) SEGMENT_RECORDS * RECORD_SIZE);
+				} catch (IOException e) {
+					throw new RuntimeException("Could not grow provenance log: " + e.getMessage(), e);
+				}
+				segments = grown;
+				res = grown;
+			}
+			return res[index];
+		}
+	}
+
+	private int number(Object o) {
+		if (o == null)
+			return NONE;
+		Integer res = numbers.get(o);
+		if (res != null)
+			return res;
+		synchronized (this) {
+			res = numbers.get(o);
+			if (res == null) {
+				if (objectCount == objects.length)
+					objects = Arrays.copyOf(objects, objects.length * 2);
+				objects[objectCount] = o;
+				res = objectCount++;
+				numbers.put(o, res);
+			}
+			return res;
+		}
+	}
+
+	private synchronized Object object(int number) {
+		return number == NONE || number >= objectCount ? null : objects[number];
+	}
+
+	/***** Logged facts *****/
+
+	private static class LoggedFlowAbstraction extends FlowAbstraction {
+
+		private final ProvenanceLog log;
+		private final long id;
+		private final long predecessorId;
+		private final FactKey predecessorKey;
+
+		public LoggedFlowAbstraction(ProvenanceLog log, long id, Unit source, FactKey key, SootMethod method,
+				long predecessorId, FactKey predecessorKey) {
+			super(source, key, method, null);
+			this.log = log;
+			this.id = id;
+			this.predecessorId = predecessorId;
+			this.predecessorKey = predecessorKey;
+		}
+
+		@Override
+		public FlowAbstraction predecessor() {
+			return log.read(predecessorId);
+		}
+
+		@Override
+		protected FactKey predecessorKey() {
+			return predecessorKey;
+		}
+
+		@Override
+		public Set<FlowAbstraction> neighbours() {
+			return log.neighbours(id);
+		}
+
+		@Override
+		public void addNeighbour(FlowAbstraction neighbour) {
+			log.addNeighbour(id, neighbour);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package layeredtaintplugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import layeredtaintplugin.Config;
+import layeredtaintplugin.icfg.IncrementalHierarchy;
+import soot.Body;
+import soot.Local;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.CastExpr;
+import soot.jimple.Constant;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.FieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+
+/**
+ * Call targets of the project layers restricted to the types the program
+ * can instantiate (Config.rapidTypeResolution). The bodies of the project
+ * classes are scanned as they are loaded, for their allocations.
+ * Library classes, and project classes extending one, may be instantiated
+ * by code which is not scanned and always count as instantiated. With
+ * Config.fieldTypeResolution, the types stored in each project field are
+ * also collected, and a receiver read from a field only gets the targets
+ * of those types. Targets are only refined once the whole project is
+ * loaded, before that a class not yet scanned may allocate any type.
+ * Refined targets are kept per call site until a scan finds new classes.
+ */
+public class RapidTypeResolver {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(RapidTypeResolver.class);
+
+	private final ProjectInformation projectInformation;
+	private final IncrementalHierarchy hierarchy;
+
+	private volatile boolean projectLoaded = false;
+	private final Set<String> scanned = new HashSet<String>();
+	// All project classes scanned, and scans so far
+	private volatile boolean complete = false;
+	private volatile int generation = 0;
+
+	// Refined targets by call site, and local types by body, of the current
+	// generation. Read without the lock.
+	private final Map<Unit, Refinement> refinements = new ConcurrentHashMap<Unit, Refinement>();
+	private final Map<Body, LocalTypes> bodyTypes = new ConcurrentHashMap<Body, LocalTypes>();
+
+	// Classes allocated in the project code
+	private final Set<SootClass> instantiated = new HashSet<SootClass>();
+	// Types stored in the fields of the project, unknown if a stored value
+	// does not come from an allocation
+	private final Map<SootField, Set<SootClass>> fieldTypes = new HashMap<SootField, Set<SootClass>>();
+	private final Set<SootField> unknownFields = new HashSet<SootField>();
+
+	private int refinedCalls = 0;
+	private int removedTargets = 0;
+
+	public RapidTypeResolver(ProjectInformation projectInformation, IncrementalHierarchy hierarchy) {
+		this.projectInformation = projectInformation;
+		this.hierarchy = hierarchy;
+	}
+
+	// All project classes have been loaded, by a project layer
+	public void projectLoaded() {
+		this.projectLoaded = true;
+	}
+
+	/***** Refinement *****/
+
+	// Targets of a virtual call reached by an instantiated receiver
+	public Set<SootMethod> refine(Unit call, SootMethod caller, Set<SootMethod> targets) {
+		InvokeExpr ie = ((Stmt) call).getInvokeExpr();
+		if (!projectLoaded || targets.size() <= 1 || !(ie instanceof InstanceInvokeExpr)
+				|| ie instanceof SpecialInvokeExpr)
+			return targets;
+		if (complete) {
+			Set<SootMethod> res = cached(call, targets);
+			if (res != null)
+				return res;
+		}
+		return compute(call, caller, targets);
+	}
+
+	private Set<SootMethod> cached(Unit call, Set<SootMethod> targets) {
+		Refinement refinement = refinements.get(call);
+		if (refinement == null || refinement.generation != generation || !refinement.targets.equals(targets))
+			return null;
+		return refinement.result;
+	}
+
+	private synchronized Set<SootMethod> compute(Unit call, SootMethod caller, Set<SootMethod> targets) {
+		refresh();
+		// Computed by another task in the meantime
+		Set<SootMethod> cached = cached(call, targets);
+		if (cached != null)
+			return cached;
+		InvokeExpr ie = ((Stmt) call).getInvokeExpr();
+
+		Set<SootClass> receivers = null;
+		if (Config.fieldTypeResolution && caller.hasActiveBody()) {
+			receivers = localTypesOf(caller.getActiveBody()).of((Local) ((InstanceInvokeExpr) ie).getBase());
+			// Never stored: the field may be set in a way we do not see
+			if (receivers != null && receivers.isEmpty())
+				receivers = null;
+		}
+
+		Set<SootMethod> res = new HashSet<SootMethod>();
+		for (SootMethod target : targets)
+			if (mayBeCalled(target, ie.getMethod(), receivers))
+				res.add(target);
+		refinedCalls++;
+		removedTargets += targets.size() - res.size();
+		res = Collections.unmodifiableSet(res);
+		refinements.put(call, new Refinement(generation, new HashSet<SootMethod>(targets), res));
+		return res;
+	}
+
+	private LocalTypes localTypesOf(Body b) {
+		LocalTypes res = bodyTypes.get(b);
+		if (res == null) {
+			res = new LocalTypes(b, true);
+			bodyTypes.put(b, res);
+		}
+		return res;
+	}
+
+	private boolean mayBeCalled(SootMethod target, SootMethod callee, Set<SootClass> receivers) {
+		if (receivers != null) {
+			for (SootClass receiver : receivers)
+				if (hierarchy.resolveConcreteDispatch(receiver, callee) == target)
+					return true;
+			return false;
+		}
+		if (!inProject(target.getDeclaringClass()))
+			return true;
+		for (SootClass sc : hierarchy.concreteSubtypesOf(target.getDeclaringClass()))
+			if (isInstantiated(sc) && hierarchy.resolveConcreteDispatch(sc, callee) == target)
+				return true;
+		return false;
+	}
+
+	private boolean isInstantiated(SootClass sc) {
+		return !inProject(sc) || instantiated.contains(sc) || extendsLibrary(sc);
+	}
+
+	// Framework classes (activities, views, ...) create their subclasses
+	private boolean extendsLibrary(SootClass sc) {
+		for (SootClass c = sc; c.hasSuperclass(); c = c.getSuperclass())
+			if (!inProject(c.getSuperclass()))
+				return !c.getSuperclass().getName().equals("java.lang.Object");
+		return false;
+	}
+
+	private boolean inProject(SootClass sc) {
+		return projectInformation.projectClasses().contains(sc.getName());
+	}
+
+	public synchronized int getRefinedCalls() {
+		return refinedCalls;
+	}
+
+	public synchronized int getRemovedTargets() {
+		return removedTargets;
+	}
+
+	/***** Scanning *****/
+
+	// Scan the project classes loaded since the last refinement. Once the
+	// project is loaded, a class still missing cannot be loaded at all.
+	private void refresh() {
+		if (complete)
+			return;
+		boolean found = false;
+		for (String className : projectInformation.projectClasses()) {
+			if (scanned.contains(className))
+				continue;
+			List<Body> bodies = new ArrayList<Body>();
+			synchronized (Scene.v()) {
+				if (!Scene.v().containsClass(className)
+						|| Scene.v().getSootClass(className).resolvingLevel() < SootClass.BODIES) {
+					if (projectLoaded)
+						scanned.add(className);
+					continue;
+				}
+				SootClass sc = Scene.v().getSootClass(className);
+				for (SootMethod sm : sc.getMethods()) {
+					if (!sm.isConcrete())
+						continue;
+					try {
+						bodies.add(sm.retrieveActiveBody());
+					} catch (RuntimeException e) {
+						LOGGER.debug("No body for " + sm + ", its allocations are ignored");
+					}
+				}
+			}
+			scanned.add(className);
+			found = true;
+			for (Body b : bodies)
+				scan(b);
+		}
+		// Allocations and field types changed, earlier results are stale
+		if (found) {
+			bodyTypes.clear();
+			generation++;
+		}
+		complete = scanned.size() == projectInformation.projectClasses().size();
+	}
+
+	private void scan(Body b) {
+		LocalTypes types = new LocalTypes(b, false);
+		for (Unit u : b.getUnits()) {
+			if (!(u instanceof DefinitionStmt))
+				continue;
+			DefinitionStmt def = (DefinitionStmt) u;
+			if (def.getRightOp() instanceof NewExpr)
+				instantiated.add(((NewExpr) def.getRightOp()).getBaseType().getSootClass());
+			if (!(def.getLeftOp() instanceof FieldRef))
+				continue;
+			SootField field = fieldOf((FieldRef) def.getLeftOp());
+			if (field == null || unknownFields.contains(field))
+				continue;
+			Set<SootClass> stored = def.getRightOp() instanceof Local ? types.of((Local) def.getRightOp())
+					: def.getRightOp() instanceof Constant ? new HashSet<SootClass>() : null;
+			if (stored == null) {
+				unknownFields.add(field);
+				fieldTypes.remove(field);
+			} else
+				typesFor(fieldTypes, field).addAll(stored);
+		}
+	}
+
+	// Project field written through the reference, null if it cannot be
+	// tracked
+	private SootField fieldOf(FieldRef ref) {
+		try {
+			SootField field = ref.getField();
+			return inProject(field.getDeclaringClass()) ? field : null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static <K> Set<SootClass> typesFor(Map<K, Set<SootClass>> index, K key) {
+		Set<SootClass> res = index.get(key);
+		if (res == null) {
+			res = new HashSet<SootClass>();
+			index.put(key, res);
+		}
+		return res;
+	}
+
+	private static class Refinement {
+
+		private final int generation;
+		private final Set<SootMethod> targets;
+		private final Set<SootMethod> result;
+
+		private Refinement(int generation, Set<SootMethod> targets, Set<SootMethod> result) {
+			this.generation = generation;
+			this.targets = targets;
+			this.result = result;
+		}
+	}
+
+	// Types each local of a body may hold, flow-insensitively, when all its
+	// values come from allocations, copies, or project fields
+	private class LocalTypes {
+
+		private final Map<Local, Set<SootClass>> types = new HashMap<Local, Set<SootClass>>();
+		private final Set<Local> unknown = new HashSet<Local>();
+
+		private LocalTypes(Body b, boolean withFields) {
+			Map<Local, Set<Local>> copies = new HashMap<Local, Set<Local>>();
+			for (Unit u : b.getUnits()) {
+				if (!(u instanceof DefinitionStmt) || !(((DefinitionStmt) u).getLeftOp() instanceof Local))
+					continue;
+				Local l = (Local) ((DefinitionStmt) u).getLeftOp();
+				Value right = ((DefinitionStmt) u).getRightOp();
+				if (right instanceof CastExpr)
+					right = ((CastExpr) right).getOp();
+				if (right instanceof NewExpr)
+					typesFor(types, l).add(((NewExpr) right).getBaseType().getSootClass());
+				else if (right instanceof Local) {
+					Set<Local> sources = copies.get(l);
+					if (sources == null) {
+						sources = new HashSet<Local>();
+						copies.put(l, sources);
+					}
+					sources.add((Local) right);
+				} else if (withFields && right instanceof FieldRef) {
+					SootField field = fieldOf((FieldRef) right);
+					if (field == null || unknownFields.contains(field))
+						unknown.add(l);
+					else
+						typesFor(types, l).addAll(typesFor(fieldTypes, field));
+				} else if (!(right instanceof Constant))
+					unknown.add(l);
+			}
+
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (Map.Entry<Local, Set<Local>> entry : copies.entrySet()) {
+					for (Local source : entry.getValue()) {
+						if (unknown.contains(source))
+							changed |= unknown.add(entry.getKey());
+						else if (types.containsKey(source))
+							changed |= typesFor(types, entry.getKey()).addAll(types.get(source));
+					}
+				}
+			}
+		}
+
+		// Null if the local may hold a value of another origin
+		private Set<SootClass> of(Local l) {
+			if (unknown.contains(l))
+				return null;
+			Set<SootClass> res = types.get(l);
+			return res == null ? new HashSet<SootClass>() : res;
+		}
+	}
+}
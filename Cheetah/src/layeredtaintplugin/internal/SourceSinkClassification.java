@@ -0,0 +1,49 @@
+package layeredtaintplugin.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import layeredtaintplugin.android.SetupApplicationJIT;
+import layeredtaintplugin.icfg.JitIcfg;
+import soot.Unit;
+import soot.jimple.Stmt;
+
+/**
+ * Whether the call statements of a run are sources or sinks. Each statement
+ * is classified once and the result is shared by all tasks.
+ */
+public class SourceSinkClassification {
+
+	private static final int SOURCE = 1;
+	private static final int SINK = 2;
+
+	private final SetupApplicationJIT app;
+	private final JitIcfg icfg;
+	private final Map<Unit, Integer> kinds = new ConcurrentHashMap<Unit, Integer>();
+
+	public SourceSinkClassification(SetupApplicationJIT app, JitIcfg icfg) {
+		this.app = app;
+		this.icfg = icfg;
+	}
+
+	public boolean isSource(Stmt stmt) {
+		return (kind(stmt) & SOURCE) != 0;
+	}
+
+	public boolean isSink(Stmt stmt) {
+		return (kind(stmt) & SINK) != 0;
+	}
+
+	private int kind(Stmt stmt) {
+		Integer kind = kinds.get(stmt);
+		if (kind == null) {
+			kind = 0;
+			if (app.getSourceSinkManager().getSourceInfo(stmt, icfg) != null)
+				kind |= SOURCE;
+			if (app.getSourceSinkManager().isSink(stmt, icfg, null))
+				kind |= SINK;
+			kinds.put(stmt, kind);
+		}
+		return kind;
+	}
+}
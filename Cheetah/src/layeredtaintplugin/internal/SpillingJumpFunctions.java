@@ -0,0 +1,506 @@
+package layeredtaintplugin.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ForwardingTable;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+
+import heros.EdgeFunction;
+import layeredtaintplugin.Config;
+import layeredtaintplugin.icfg.JitIcfg;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Compact jump functions kept under a memory budget
+ * (Config.jumpFunctionBudget). Between tasks, the edges of the least
+ * recently used methods are written to a temporary file until the budget
+ * is met; they are read back when the solver reaches one of their
+ * statements again. The incoming edges of the solvers (inc) are kept by
+ * the store too, and written out with the methods they start in. Facts are
+ * written as provenance log ids, so this store needs Config.provenanceLog.
+ * Records read back free their extent in the file, for the next records to
+ * reuse. The file is deleted on clear and once the store is closed.
+ */
+public class SpillingJumpFunctions<L> extends CompactJumpFunctions<Unit, L> {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(SpillingJumpFunctions.class);
+
+	// Rough heap cost of an edge in memory, facts and tables included
+	private static final long EDGE_BYTES = 96;
+
+	private final JitIcfg icfg;
+	private final long budget;
+
+	// Methods with edges in memory and their targets, least recently used first
+	private final LinkedHashMap<SootMethod, Set<Unit>> resident = new LinkedHashMap<SootMethod, Set<Unit>>(16,
+			0.75f, true);
+	// Methods on disk, and the method of each target on disk
+	private final Map<SootMethod, Spilled> spilled = new HashMap<SootMethod, Spilled>();
+	private final Map<Unit, SootMethod> spilledTargets = new HashMap<Unit, SootMethod>();
+	private int spilledEdges = 0;
+
+	// Incoming edges by start point and fact, as the solvers' inc table
+	private final Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> incoming = FactMap.table();
+	private final IncomingTable incomingTable = new IncomingTable();
+	// Call sites of the incoming edges on disk, by number
+	private final Map<Unit, Integer> unitNumbers = new HashMap<Unit, Integer>();
+	private final List<Unit> units = new ArrayList<Unit>();
+
+	private File path = null;
+	private RandomAccessFile file = null;
+	// Extents of the file no record uses, by offset, adjacent ones merged
+	private final TreeMap<Long, Long> free = new TreeMap<Long, Long>();
+
+	public SpillingJumpFunctions(EdgeFunction<L> allTop, JitIcfg icfg) {
+		super(allTop);
+		this.icfg = icfg;
+		this.budget = Config.jumpFunctionBudget * 1024 * 1024 / EDGE_BYTES;
+	}
+
+	// Table to hand to the solvers as inc, locked by them
+	public Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> getIncoming() {
+		return incomingTable;
+	}
+
+	/***** Residency *****/
+
+	@Override
+	protected void access(Unit target) {
+		SootMethod m = spilledTargets.get(target);
+		if (m != null)
+			load(m);
+		else
+			m = icfg.getMethodOf(target);
+		Set<Unit> targets = resident.get(m);
+		if (targets == null) {
+			targets = new HashSet<Unit>();
+			resident.put(m, targets);
+		}
+		targets.add(target);
+	}
+
+	// Called between tasks: writes out methods until the budget is met
+	@Override
+	public synchronized void trim() {
+		int inMemory = super.size();
+		if (inMemory <= budget)
+			return;
+		int before = inMemory;
+		Iterator<Entry<SootMethod, Set<Unit>>> it = resident.entrySet().iterator();
+		while (inMemory > budget && it.hasNext()) {
+			Entry<SootMethod, Set<Unit>> entry = it.next();
+			it.remove();
+			inMemory -= spill(entry.getKey(), entry.getValue());
+		}
+		LOGGER.info("Jump functions over budget, " + (before - inMemory) + " edges written to disk, " + spilledEdges
+				+ " on disk");
+	}
+
+	/***** Disk *****/
+
+	private int spill(SootMethod m, Set<Unit> targets) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			List<Unit> written = new ArrayList<Unit>(targets);
+			int edges = 0;
+			for (Unit target : written) {
+				edges += writeEdges(target, out);
+				writeIncoming(target, out);
+			}
+			out.flush();
+
+			RandomAccessFile file = file();
+			long offset = allocate(bytes.size());
+			file.seek(offset);
+			file.write(bytes.toByteArray());
+
+			spilled.put(m, new Spilled(offset, bytes.size(), written, edges));
+			for (Unit target : written)
+				spilledTargets.put(target, m);
+			spilledEdges += edges;
+			return edges;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write jump functions: " + e.getMessage(), e);
+		}
+	}
+
+	private void load(SootMethod m) {
+		Spilled record = spilled.remove(m);
+		try {
+			byte[] bytes = new byte[record.length];
+			file.seek(record.offset);
+			file.readFully(bytes);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			for (Unit target : record.targets) {
+				readEdges(target, in);
+				readIncoming(target, in);
+				spilledTargets.remove(target);
+			}
+			resident.put(m, new HashSet<Unit>(record.targets));
+			spilledEdges -= record.edges;
+			release(record.offset, record.length);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read jump functions: " + e.getMessage(), e);
+		}
+	}
+
+	private void loadAll() {
+		for (SootMethod m : new ArrayList<SootMethod>(spilled.keySet()))
+			load(m);
+	}
+
+	private void writeIncoming(Unit target, DataOutput out) throws IOException {
+		Map<FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> row = incoming.rowMap().remove(target);
+		if (row == null) {
+			out.writeInt(0);
+			return;
+		}
+		ProvenanceLog log = ProvenanceLog.v();
+		out.writeInt(row.size());
+		for (Entry<FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> cell : row.entrySet()) {
+			out.writeLong(log.idOf(cell.getKey()));
+			out.writeInt(cell.getValue().size());
+			for (Entry<Unit, Set<FlowAbstraction>> callSite : cell.getValue().entrySet()) {
+				out.writeInt(numberOf(callSite.getKey()));
+				out.writeInt(callSite.getValue().size());
+				for (FlowAbstraction fa : callSite.getValue())
+					out.writeLong(log.idOf(fa));
+			}
+		}
+	}
+
+	private void readIncoming(Unit target, DataInput in) throws IOException {
+		ProvenanceLog log = ProvenanceLog.v();
+		int cells = in.readInt();
+		for (int i = 0; i < cells; i++) {
+			FlowAbstraction d = log.read(in.readLong());
+			int callSites = in.readInt();
+			Map<Unit, Set<FlowAbstraction>> callers = new HashMap<Unit, Set<FlowAbstraction>>();
+			for (int j = 0; j < callSites; j++) {
+				Unit callSite = units.get(in.readInt());
+				int facts = in.readInt();
+				Set<FlowAbstraction> callerFacts = new HashSet<FlowAbstraction>();
+				for (int k = 0; k < facts; k++)
+					callerFacts.add(log.read(in.readLong()));
+				callers.put(callSite, callerFacts);
+			}
+			incoming.put(target, d, callers);
+		}
+	}
+
+	private int numberOf(Unit u) {
+		Integer number = unitNumbers.get(u);
+		if (number == null) {
+			number = units.size();
+			units.add(u);
+			unitNumbers.put(u, number);
+		}
+		return number;
+	}
+
+	/***** File *****/
+
+	private RandomAccessFile file() throws IOException {
+		if (file == null) {
+			path = File.createTempFile("jumpfunctions", ".bin");
+			path.deleteOnExit();
+			file = new RandomAccessFile(path, "rw");
+		}
+		return file;
+	}
+
+	// First free extent large enough, else the end of the file
+	private long allocate(int length) throws IOException {
+		for (Entry<Long, Long> extent : free.entrySet()) {
+			long offset = extent.getKey();
+			long size = extent.getValue();
+			if (size >= length) {
+				free.remove(offset);
+				if (size > length)
+					free.put(offset + length, size - length);
+				return offset;
+			}
+		}
+		return file.length();
+	}
+
+	// Frees the extent of a record read back; free space at the end of the
+	// file is cut off
+	private void release(long offset, long length) throws IOException {
+		Entry<Long, Long> before = free.floorEntry(offset);
+		if (before != null && before.getKey() + before.getValue() == offset) {
+			free.remove(before.getKey());
+			offset = before.getKey();
+			length += before.getValue();
+		}
+		Long after = free.remove(offset + length);
+		if (after != null)
+			length += after;
+		if (offset + length == file.length())
+			file.setLength(offset);
+		else
+			free.put(offset, length);
+	}
+
+	// The records on disk are lost with the file
+	private void deleteFile() {
+		spilled.clear();
+		spilledTargets.clear();
+		spilledEdges = 0;
+		unitNumbers.clear();
+		units.clear();
+		free.clear();
+		if (file == null)
+			return;
+		try {
+			file.close();
+		} catch (IOException e) {
+			LOGGER.debug("Could not close " + path + ": " + e.getMessage());
+		}
+		if (!path.delete())
+			LOGGER.debug("Could not delete " + path + ", deleted on exit");
+		file = null;
+		path = null;
+	}
+
+	private static class Spilled {
+
+		private final long offset;
+		private final int length;
+		private final List<Unit> targets;
+		private final int edges;
+
+		private Spilled(long offset, int length, List<Unit> targets, int edges) {
+			this.offset = offset;
+			this.length = length;
+			this.targets = targets;
+			this.edges = edges;
+		}
+	}
+
+	/***** IncrementalJumpFunctions *****/
+
+	@Override
+	public synchronized void removeTarget(Unit target) {
+		// Loaded first, so that the other targets of the method stay valid
+		if (spilledTargets.containsKey(target))
+			load(spilledTargets.get(target));
+		super.removeTarget(target);
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size() + spilledEdges;
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		incoming.clear();
+		resident.clear();
+		deleteFile();
+	}
+
+	// Edges on disk are dropped, the ones in memory stay readable
+	@Override
+	public synchronized void close() {
+		deleteFile();
+	}
+
+	/***** Incoming table *****/
+
+	// Rows are read back when the solvers access them, under the store's lock
+	// as for the jump functions. Views over the whole table read back every
+	// row; they are only used between runs, to drop the summaries of changed
+	// methods.
+	private class IncomingTable extends ForwardingTable<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> {
+
+		@Override
+		protected Table<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> delegate() {
+			return incoming;
+		}
+
+		@Override
+		public Map<Unit, Set<FlowAbstraction>> get(Object rowKey, Object columnKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				accessRow(rowKey);
+				return super.get(rowKey, columnKey);
+			}
+		}
+
+		@Override
+		public boolean contains(Object rowKey, Object columnKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				accessRow(rowKey);
+				return super.contains(rowKey, columnKey);
+			}
+		}
+
+		@Override
+		public boolean containsRow(Object rowKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				accessRow(rowKey);
+				return super.containsRow(rowKey);
+			}
+		}
+
+		@Override
+		public Map<FlowAbstraction, Map<Unit, Set<FlowAbstraction>>> row(Unit rowKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				access(rowKey);
+				return super.row(rowKey);
+			}
+		}
+
+		@Override
+		public Map<Unit, Set<FlowAbstraction>> put(Unit rowKey, FlowAbstraction columnKey,
+				Map<Unit, Set<FlowAbstraction>> value) {
+			synchronized (SpillingJumpFunctions.this) {
+				access(rowKey);
+				return super.put(rowKey, columnKey, value);
+			}
+		}
+
+		@Override
+		public Map<Unit, Set<FlowAbstraction>> remove(Object rowKey, Object columnKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				accessRow(rowKey);
+				return super.remove(rowKey, columnKey);
+			}
+		}
+
+		@Override
+		public void putAll(Table<? extends Unit, ? extends FlowAbstraction, ? extends Map<Unit, Set<FlowAbstraction>>> table) {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				super.putAll(table);
+			}
+		}
+
+		@Override
+		public void clear() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				super.clear();
+			}
+		}
+
+		@Override
+		public Set<Cell<Unit, FlowAbstraction, Map<Unit, Set<FlowAbstraction>>>> cellSet() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.cellSet();
+			}
+		}
+
+		@Override
+		public Collection<Map<Unit, Set<FlowAbstraction>>> values() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.values();
+			}
+		}
+
+		@Override
+		public Map<Unit, Map<FlowAbstraction, Map<Unit, Set<FlowAbstraction>>>> rowMap() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.rowMap();
+			}
+		}
+
+		@Override
+		public Set<Unit> rowKeySet() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.rowKeySet();
+			}
+		}
+
+		@Override
+		public Map<Unit, Map<Unit, Set<FlowAbstraction>>> column(FlowAbstraction columnKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.column(columnKey);
+			}
+		}
+
+		@Override
+		public Map<FlowAbstraction, Map<Unit, Map<Unit, Set<FlowAbstraction>>>> columnMap() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.columnMap();
+			}
+		}
+
+		@Override
+		public Set<FlowAbstraction> columnKeySet() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.columnKeySet();
+			}
+		}
+
+		@Override
+		public boolean containsColumn(Object columnKey) {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.containsColumn(columnKey);
+			}
+		}
+
+		@Override
+		public boolean containsValue(Object value) {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.containsValue(value);
+			}
+		}
+
+		@Override
+		public int size() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.size();
+			}
+		}
+
+		@Override
+		public boolean isEmpty() {
+			synchronized (SpillingJumpFunctions.this) {
+				loadAll();
+				return super.isEmpty();
+			}
+		}
+
+		private void accessRow(Object rowKey) {
+			if (rowKey instanceof Unit)
+				access((Unit) rowKey);
+		}
+	}
+}
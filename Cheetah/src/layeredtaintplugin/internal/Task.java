@@ -38,8 +38,21 @@ public class Task implements Comparable<Task> {
 		return layer;
 	}
 
-	public void addInFact(FlowAbstraction source) {
-		this.inFacts.add(source);
+	public synchronized void addInFact(FlowAbstraction source) {
+		// The zero abstraction is always seeded, keep it out of the key
+		if (!source.isZeroAbstraction())
+			this.inFacts.add(source);
+	}
+
+	// Merge an equivalent task (same layer, start method and start unit)
+	public synchronized void merge(Task other) {
+		for (FlowAbstraction fa : other.getInFacts())
+			addInFact(fa);
+		this.targets.addAll(other.getTargets());
+	}
+
+	public boolean sameLocation(Task other) {
+		return layer == other.layer && equal(startMethod, other.startMethod) && equal(startUnit, other.startUnit);
 	}
 
 	public Set<FlowAbstraction> getInFacts() {
@@ -88,9 +101,16 @@ public class Task implements Comparable<Task> {
 
 	@Override
 	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
 		if (!(obj instanceof Task))
 			return false;
-		return (((Task) obj).hashCode() == hashCode());
+		Task other = (Task) obj;
+		return sameLocation(other) && inFacts.equals(other.inFacts);
+	}
+
+	private static boolean equal(Object o1, Object o2) {
+		return (o1 == null) ? o2 == null : o1.equals(o2);
 	}
 
 	@Override
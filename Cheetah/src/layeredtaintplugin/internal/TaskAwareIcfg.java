@@ -0,0 +1,27 @@
+package layeredtaintplugin.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import layeredtaintplugin.icfg.JitIcfg;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Call graph restricted to the targets of the tasks being solved: each
+ * solver sees it through a TaskIcfg giving the targets of its own task.
+ * Outlives a single LayeredAnalysis when summaries are reused.
+ */
+public class TaskAwareIcfg extends JitIcfg {
+
+	public TaskAwareIcfg() {
+		super(new ArrayList<SootMethod>());
+	}
+
+	@Override
+	public Set<SootMethod> getCalleesOfCallAt(Unit u) {
+		// Empty by default (same behaviour as L1)
+		return new HashSet<SootMethod>();
+	}
+}
@@ -0,0 +1,102 @@
+package layeredtaintplugin.internal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import heros.InterproceduralCFG;
+import layeredtaintplugin.icfg.JitIcfg;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * The icfg as seen by the solver of one task: calls only have the targets
+ * the task gives them, so tasks solved at the same time never follow each
+ * other's calls. Everything else is answered by the shared icfg.
+ */
+class TaskIcfg implements InterproceduralCFG<Unit, SootMethod> {
+
+	private final JitIcfg icfg;
+	private final AnalysisTask task;
+
+	TaskIcfg(JitIcfg icfg, AnalysisTask task) {
+		this.icfg = icfg;
+		this.task = task;
+	}
+
+	@Override
+	public Set<SootMethod> getCalleesOfCallAt(Unit u) {
+		Set<SootMethod> callees = task.calleesOfCallAt(u);
+		// Edges followed by the solver, for getCallersOf
+		for (SootMethod callee : callees)
+			icfg.addCallerForMethod(u, callee);
+		return callees;
+	}
+
+	/***** Shared icfg *****/
+
+	@Override
+	public SootMethod getMethodOf(Unit n) {
+		return icfg.getMethodOf(n);
+	}
+
+	@Override
+	public List<Unit> getPredsOf(Unit u) {
+		return icfg.getPredsOf(u);
+	}
+
+	@Override
+	public List<Unit> getSuccsOf(Unit n) {
+		return icfg.getSuccsOf(n);
+	}
+
+	@Override
+	public Collection<Unit> getCallersOf(SootMethod m) {
+		return icfg.getCallersOf(m);
+	}
+
+	@Override
+	public Set<Unit> getCallsFromWithin(SootMethod m) {
+		return icfg.getCallsFromWithin(m);
+	}
+
+	@Override
+	public Collection<Unit> getStartPointsOf(SootMethod m) {
+		return icfg.getStartPointsOf(m);
+	}
+
+	@Override
+	public Collection<Unit> getReturnSitesOfCallAt(Unit n) {
+		return icfg.getReturnSitesOfCallAt(n);
+	}
+
+	@Override
+	public boolean isCallStmt(Unit u) {
+		return icfg.isCallStmt(u);
+	}
+
+	@Override
+	public boolean isExitStmt(Unit u) {
+		return icfg.isExitStmt(u);
+	}
+
+	@Override
+	public boolean isStartPoint(Unit u) {
+		return icfg.isStartPoint(u);
+	}
+
+	@Override
+	public Set<Unit> allNonCallStartNodes() {
+		return icfg.allNonCallStartNodes();
+	}
+
+	@Override
+	public boolean isFallThroughSuccessor(Unit u, Unit succ) {
+		return icfg.isFallThroughSuccessor(u, succ);
+	}
+
+	@Override
+	public boolean isBranchTarget(Unit u, Unit succ) {
+		return icfg.isBranchTarget(u, succ);
+	}
+}
@@ -0,0 +1,99 @@
+package layeredtaintplugin.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import layeredtaintplugin.internal.layer.Layer;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Priority queue of tasks holding at most one task per layer, start method
+ * and start unit. The in-facts of equivalent tasks are merged on insertion.
+ */
+public class TaskQueue {
+
+	private final PriorityQueue<Task> queue = new PriorityQueue<Task>();
+	private final Map<Location, Task> queuedTasks = new HashMap<Location, Task>();
+
+	public boolean add(Task task) {
+		Location location = new Location(task);
+		Task queued = queuedTasks.get(location);
+		if (queued == null) {
+			queuedTasks.put(location, task);
+			return queue.add(task);
+		}
+		if (queued != task)
+			queued.merge(task);
+		return false;
+	}
+
+	public void addAll(Collection<Task> tasks) {
+		for (Task task : tasks)
+			add(task);
+	}
+
+	// Re-insert the task behind the ones of its layer, keeping the facts of
+	// an equivalent queued task
+	public void reschedule(Task task) {
+		Task queued = queuedTasks.remove(new Location(task));
+		if (queued != null) {
+			queue.remove(queued);
+			if (queued != task)
+				task.merge(queued);
+		}
+		add(task);
+	}
+
+	public Task poll() {
+		Task task = queue.poll();
+		if (task != null)
+			queuedTasks.remove(new Location(task));
+		return task;
+	}
+
+	public Task peek() {
+		return queue.peek();
+	}
+
+	public boolean isEmpty() {
+		return queue.isEmpty();
+	}
+
+	public int size() {
+		return queue.size();
+	}
+
+	private static class Location {
+
+		private final Layer layer;
+		private final SootMethod startMethod;
+		private final Unit startUnit;
+
+		public Location(Task task) {
+			this.layer = task.getLayer();
+			this.startMethod = task.getStartMethod();
+			this.startUnit = task.getStartUnit();
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 37;
+			int result = 1;
+			result = prime * result + ((layer == null) ? 0 : layer.hashCode());
+			result = prime * result + ((startMethod == null) ? 0 : startMethod.hashCode());
+			result = prime * result + ((startUnit == null) ? 0 : startUnit.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Location))
+				return false;
+			Location other = (Location) obj;
+			return layer == other.layer && startMethod == other.startMethod && startUnit == other.startUnit;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package layeredtaintplugin.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Canonical instances of the tasks seen by the scheduler, indexed by layer,
+ * start method, start unit and in-facts.
+ */
+public class TaskRegistry {
+
+	private final Map<Task, Task> canonicalTasks = new HashMap<Task, Task>();
+	private final Set<Task> computedTasks = Collections.newSetFromMap(new IdentityHashMap<Task, Boolean>());
+
+	public synchronized Task intern(Task task) {
+		Task canonical = canonicalTasks.get(task);
+		if (canonical == null) {
+			canonicalTasks.put(task, task);
+			canonical = task;
+		}
+		return canonical;
+	}
+
+	public synchronized void setComputed(Task task) {
+		computedTasks.add(intern(task));
+	}
+
+	public synchronized boolean isComputed(Task task) {
+		Task canonical = canonicalTasks.get(task);
+		return canonical != null && computedTasks.contains(canonical);
+	}
+
+	public synchronized int size() {
+		return computedTasks.size();
+	}
+}
@@ -0,0 +1,113 @@
+package layeredtaintplugin.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import layeredtaintplugin.Config;
+import layeredtaintplugin.internal.layer.Layer;
+
+/**
+ * Measurements of one analysis task. The jump function edges are counted by
+ * the task's solver as it adds them. The classes loaded are only known per
+ * task when tasks run one at a time; in parallel, they are counted per batch
+ * (see AnalysisStatistics) and left unknown here.
+ */
+public class TaskStatistics {
+
+	public static final int UNKNOWN = -1;
+
+	private final Layer layer;
+	private final String method;
+	private final String unit;
+
+	private final AtomicLong propagations = new AtomicLong();
+	private long startTime;
+	private long wallTime = 0;
+	private final AtomicLong jumpFunctionGrowth = new AtomicLong();
+	// Unknown for tasks solved in parallel
+	private int classesLoaded = UNKNOWN;
+	private int spawnedTasks = 0;
+	// Access-path bound, and how often it was cut during the task
+	private volatile int apLength = Config.apLength;
+	private final AtomicInteger widenings = new AtomicInteger();
+
+	public TaskStatistics(Task task) {
+		this.layer = task.getLayer();
+		this.method = task.getStartMethod().getSignature();
+		this.unit = task.getStartUnit() == null ? null : task.getStartUnit().toString();
+	}
+
+	public void start() {
+		this.startTime = System.nanoTime();
+	}
+
+	public void end(int spawnedTasks) {
+		this.wallTime = System.nanoTime() - startTime;
+		this.spawnedTasks = spawnedTasks;
+	}
+
+	public void setClassesLoaded(int classesLoaded) {
+		this.classesLoaded = classesLoaded;
+	}
+
+	// Called by the solver threads
+	public void propagated() {
+		propagations.incrementAndGet();
+	}
+
+	// Called by the solver threads for each edge the task adds
+	public void edgeAdded() {
+		jumpFunctionGrowth.incrementAndGet();
+	}
+
+	public void setApLength(int apLength) {
+		this.apLength = apLength;
+	}
+
+	public void widened(int apLength) {
+		this.apLength = apLength;
+		widenings.incrementAndGet();
+	}
+
+	/***** Getters *****/
+
+	public Layer getLayer() {
+		return layer;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public long getWallTime() {
+		return wallTime;
+	}
+
+	public long getPropagations() {
+		return propagations.get();
+	}
+
+	public long getJumpFunctionGrowth() {
+		return jumpFunctionGrowth.get();
+	}
+
+	public int getClassesLoaded() {
+		return classesLoaded;
+	}
+
+	public int getSpawnedTasks() {
+		return spawnedTasks;
+	}
+
+	public int getApLength() {
+		return apLength;
+	}
+
+	public int getWidenings() {
+		return widenings.get();
+	}
+}
@@ -0,0 +1,225 @@
+package layeredtaintplugin.internal;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import layeredtaintplugin.android.SetupApplicationJIT;
+import soot.ClassSource;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.asm.AsmClassProvider;
+import soot.jimple.infoflow.source.data.ISourceSinkDefinitionProvider;
+
+/**
+ * Soot scene of a project kept alive from one run to the next. Before a run,
+ * the class files of the project's class folders are compared with those of
+ * the previous run: the bodies of changed classes are re-resolved in place,
+ * everything else stays loaded. The scene is rebuilt when the APK or a jar
+ * changed, when a changed class has new signatures, or when Soot was reset
+ * in between (e.g. by the run of another project). A rebuilt APK alone does
+ * not force a rebuild when class files changed too: it is taken to be the
+ * packaging of these changes, and the changed classes are read from the
+ * class folders rather than from the APK's dex code.
+ */
+public class WarmScene {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(WarmScene.class);
+
+	private final String apkFileLocation;
+	private final String sootCP;
+
+	private SetupApplicationJIT app = null;
+	private Scene scene = null;
+
+	// Last modification of the APK and the jars, of the class files by class
+	private final Map<String, Long> archiveStamps = new HashMap<String, Long>();
+	private final Map<String, Long> classStamps = new HashMap<String, Long>();
+
+	public WarmScene(String apkFileLocation, String sootCP) {
+		this.apkFileLocation = apkFileLocation;
+		this.sootCP = sootCP;
+	}
+
+	public boolean isFor(String apkFileLocation, String sootCP) {
+		return equal(this.apkFileLocation, apkFileLocation) && equal(this.sootCP, sootCP);
+	}
+
+	// Scene ready for a new run, with the application set up in it
+	public synchronized SetupApplicationJIT prepare(ISourceSinkDefinitionProvider sourceSinkProvider,
+			Set<String> androidCallbacks) {
+		Map<String, Long> newArchiveStamps = new HashMap<String, Long>();
+		Map<String, Long> newClassStamps = new HashMap<String, Long>();
+		stamp(newArchiveStamps, newClassStamps);
+
+		if (app != null && scene == Scene.v() && sameArchives(newArchiveStamps, newClassStamps)
+				&& reresolveChangedClasses(newClassStamps)) {
+			classStamps.clear();
+			classStamps.putAll(newClassStamps);
+			return app;
+		}
+
+		LOGGER.info("Building Soot scene for " + apkFileLocation);
+		app = new SetupApplicationJIT(apkFileLocation, sootCP, sourceSinkProvider, androidCallbacks);
+		app.initializeSoot();
+		scene = Scene.v();
+		archiveStamps.clear();
+		archiveStamps.putAll(newArchiveStamps);
+		classStamps.clear();
+		classStamps.putAll(newClassStamps);
+		return app;
+	}
+
+	/***** Changed classes *****/
+
+	// The APK is ignored when project classes changed, as it is rebuilt then
+	private boolean sameArchives(Map<String, Long> newArchiveStamps, Map<String, Long> newClassStamps) {
+		if (archiveStamps.equals(newArchiveStamps))
+			return true;
+		if (apkFileLocation == null || classStamps.equals(newClassStamps))
+			return false;
+		Map<String, Long> jarStamps = new HashMap<String, Long>(archiveStamps);
+		Map<String, Long> newJarStamps = new HashMap<String, Long>(newArchiveStamps);
+		jarStamps.remove(apkFileLocation);
+		newJarStamps.remove(apkFileLocation);
+		return jarStamps.equals(newJarStamps);
+	}
+
+	// False if the scene has to be rebuilt
+	private boolean reresolveChangedClasses(Map<String, Long> newClassStamps) {
+		Set<String> changed = new HashSet<String>();
+		for (Entry<String, Long> entry : classStamps.entrySet())
+			if (!entry.getValue().equals(newClassStamps.get(entry.getKey())))
+				changed.add(entry.getKey());
+		// New classes are loaded on demand, unless something refers to them
+		// already as phantoms
+		for (String className : newClassStamps.keySet())
+			if (!classStamps.containsKey(className) && Scene.v().containsClass(className)
+					&& Scene.v().getSootClass(className).isPhantom())
+				return false;
+
+		int reresolved = 0;
+		for (String className : changed) {
+			if (!Scene.v().containsClass(className))
+				continue;
+			SootClass sc = Scene.v().getSootClass(className);
+			if (sc.resolvingLevel() < SootClass.SIGNATURES)
+				continue;
+			if (!newClassStamps.containsKey(className) || !reresolve(sc))
+				return false;
+			reresolved++;
+		}
+		LOGGER.info("Reusing Soot scene, " + reresolved + " of " + changed.size() + " changed classes re-resolved");
+		return true;
+	}
+
+	// New method sources for the class, false if its signatures changed. The
+	// class file is read explicitly: with src_prec_apk, the source locator
+	// would return the dex code of the APK.
+	private boolean reresolve(SootClass sc) {
+		ClassSource source = new AsmClassProvider().find(sc.getName());
+		if (source == null)
+			return false;
+		SootClass fresh = new SootClass(sc.getName());
+		fresh.setResolvingLevel(SootClass.BODIES);
+		try {
+			source.resolve(fresh);
+		} finally {
+			source.close();
+		}
+		if (!sameSignatures(sc, fresh))
+			return false;
+
+		for (SootMethod m : sc.getMethods()) {
+			SootMethod freshMethod = fresh.getMethod(m.getSubSignature());
+			synchronized (Scene.v()) {
+				m.releaseActiveBody();
+				m.setSource(freshMethod.getSource());
+			}
+		}
+		return true;
+	}
+
+	private boolean sameSignatures(SootClass sc, SootClass fresh) {
+		if (sc.getModifiers() != fresh.getModifiers())
+			return false;
+		if (!equal(name(sc.hasSuperclass() ? sc.getSuperclass() : null),
+				name(fresh.hasSuperclass() ? fresh.getSuperclass() : null)))
+			return false;
+		if (!names(sc.getInterfaces()).equals(names(fresh.getInterfaces())))
+			return false;
+		if (sc.getFieldCount() != fresh.getFieldCount() || sc.getMethodCount() != fresh.getMethodCount())
+			return false;
+		for (SootField f : sc.getFields()) {
+			SootField freshField = fresh.getFieldUnsafe(f.getSubSignature());
+			if (freshField == null || freshField.getModifiers() != f.getModifiers())
+				return false;
+		}
+		for (SootMethod m : sc.getMethods()) {
+			SootMethod freshMethod = fresh.getMethodUnsafe(m.getSubSignature());
+			if (freshMethod == null || freshMethod.getModifiers() != m.getModifiers())
+				return false;
+		}
+		return true;
+	}
+
+	/***** Stamps *****/
+
+	private void stamp(Map<String, Long> archiveStamps, Map<String, Long> classStamps) {
+		if (apkFileLocation != null)
+			archiveStamps.put(apkFileLocation, stamp(new File(apkFileLocation)));
+		for (String entry : sootCP.split(File.pathSeparator)) {
+			if (entry.isEmpty())
+				continue;
+			File file = new File(entry);
+			if (file.isDirectory())
+				stampClasses(file, "", classStamps);
+			else
+				archiveStamps.put(entry, stamp(file));
+		}
+	}
+
+	private void stampClasses(File directory, String packagePrefix, Map<String, Long> classStamps) {
+		File[] children = directory.listFiles();
+		if (children == null)
+			return;
+		for (File child : children) {
+			if (child.isDirectory())
+				stampClasses(child, packagePrefix + child.getName() + ".", classStamps);
+			else if (child.getName().endsWith(".class")) {
+				String className = packagePrefix
+						+ child.getName().substring(0, child.getName().length() - ".class".length());
+				// First entry of the classpath wins, as in Soot
+				if (!classStamps.containsKey(className))
+					classStamps.put(className, stamp(child));
+			}
+		}
+	}
+
+	private long stamp(File file) {
+		return file.lastModified() * 31 + file.length();
+	}
+
+	private static String name(SootClass sc) {
+		return sc == null ? null : sc.getName();
+	}
+
+	private static Set<String> names(Iterable<SootClass> classes) {
+		Set<String> names = new HashSet<String>();
+		for (SootClass sc : classes)
+			names.add(sc.getName());
+		return names;
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
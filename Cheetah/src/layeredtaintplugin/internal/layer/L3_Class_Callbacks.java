@@ -43,20 +43,23 @@ public class L3_Class_Callbacks extends LocationLayer {
 		return requiredTasks;
 	}
 
+	// Under the Scene lock, the dummy main adds classes to the scene
 	private SootMethod createDummyMain(String className) {
-		if (Scene.v().containsClass(className)) {
-			SootClass sc = Scene.v().getSootClass(className);
-			if (!sc.declaresMethodByName(Config.dummyMainMethodName)) {
-				SootMethod dm = app.createDummyMainForClass(className);
-				if (DEBUG_DUMMY_MAIN) {
-					LOGGER.info("Creating dummyMain for " + className);
-					LOGGER.info(dm.getActiveBody() + "");
+		synchronized (Scene.v()) {
+			if (Scene.v().containsClass(className)) {
+				SootClass sc = Scene.v().getSootClass(className);
+				if (!sc.declaresMethodByName(Config.dummyMainMethodName)) {
+					SootMethod dm = app.createDummyMainForClass(className);
+					if (DEBUG_DUMMY_MAIN) {
+						LOGGER.info("Creating dummyMain for " + className);
+						LOGGER.info(dm.getActiveBody() + "");
+					}
+					return dm;
 				}
-				return dm;
-			}
-			return sc.getMethodByName(Config.dummyMainMethodName);
-		} else
-			throw new RuntimeException("SootClass does not exist " + className);
+				return sc.getMethodByName(Config.dummyMainMethodName);
+			} else
+				throw new RuntimeException("SootClass does not exist " + className);
+		}
 	}
 
 	@Override
@@ -1,6 +1,8 @@
 package layeredtaintplugin.internal.layer;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -33,16 +35,21 @@ public class L8_AndroidLifecycle extends LocationLayer {
 			if (!inProject(className))
 				continue;
 
-			SootClass sc = Scene.v().getSootClass(className);
-			if (!sc.declaresMethodByName(Config.dummyMainMethodName)) {
+			// The prefetcher's loader thread may be resolving the class
+			List<SootMethod> methods;
+			synchronized (Scene.v()) {
+				SootClass sc = Scene.v().getSootClass(className);
+				if (sc.declaresMethodByName(Config.dummyMainMethodName))
+					continue;
+				methods = new ArrayList<SootMethod>(sc.getMethods());
+			}
 
-				// initialize with the first method
-				for (SootMethod sm : sc.getMethods()) {
-					if (!sm.isAbstract() && !sm.isNative()) {
-						Task newTask = new Task(Layer.FILE, sc.getMethods().get(0), null);
-						requiredTasks.add(newTask);
-						break;
-					}
+			// initialize with the first method
+			for (SootMethod sm : methods) {
+				if (!sm.isAbstract() && !sm.isNative()) {
+					Task newTask = new Task(Layer.FILE, methods.get(0), null);
+					requiredTasks.add(newTask);
+					break;
 				}
 			}
 		}
@@ -60,16 +67,20 @@ public class L8_AndroidLifecycle extends LocationLayer {
 		return requiredTasks;
 	}
 
+	// Under the Scene lock, the dummy main adds classes to the scene
 	private SootMethod getDummyMain() {
-		if (Scene.v().containsClass(Config.dummyMainClassName)) {
-			SootClass sc = Scene.v().getSootClass(Config.dummyMainClassName);
-			return sc.getMethodByName(Config.dummyMainMethodName);
-		} else {
-			if (DEBUG_DUMMY_MAIN)
-				LOGGER.info("Creating full dummy main");
-			SootMethod dm = app.createFullDummyMain();
-			Scene.v().getOrMakeFastHierarchy();
-			return dm;
+		synchronized (Scene.v()) {
+			if (Scene.v().containsClass(Config.dummyMainClassName)) {
+				SootClass sc = Scene.v().getSootClass(Config.dummyMainClassName);
+				return sc.getMethodByName(Config.dummyMainMethodName);
+			} else {
+				if (DEBUG_DUMMY_MAIN)
+					LOGGER.info("Creating full dummy main");
+				SootMethod dm = app.createFullDummyMain();
+				if (!Config.incrementalHierarchy)
+					Scene.v().getOrMakeFastHierarchy();
+				return dm;
+			}
 		}
 	}
 
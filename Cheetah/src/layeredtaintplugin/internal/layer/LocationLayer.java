@@ -47,7 +47,7 @@ public abstract class LocationLayer extends AnalysisTask {
 				}
 			} else {
 				// Task initialised with the first method of the class
-				for (SootMethod sm : sc.getMethods()) {
+				for (SootMethod sm : methodsOf(sc)) {
 					if (!sm.isAbstract() && !sm.isNative()) {
 						Task newTask = new Task(previousLayer(), sm, null);
 						requiredTasks.add(newTask);
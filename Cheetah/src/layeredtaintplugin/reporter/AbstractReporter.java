@@ -0,0 +1,244 @@
+package layeredtaintplugin.reporter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import heros.solver.IFDSSolver;
+import heros.solver.JumpFunctions;
+import heros.solver.Pair;
+import layeredtaintplugin.icfg.JitIcfg;
+import layeredtaintplugin.internal.FlowAbstraction;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Receives the leaks found by the analysis and finds their paths. Does not
+ * depend on the workbench: Reporter shows the leaks in its views,
+ * HeadlessReporter writes them to a file.
+ */
+public abstract class AbstractReporter {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(AbstractReporter.class);
+
+	protected JitIcfg icfg;
+	private PathFinder pathFinder;
+
+	private final SootMethod startPoint;
+	private final int runId;
+
+	// Everything reported in this run, replayed by incremental runs. Only
+	// recorded when asked to
+	private boolean recordReports = false;
+	private final List<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>> reports;
+
+	public AbstractReporter(int runId, SootMethod startPoint) {
+		this.runId = runId;
+		this.startPoint = startPoint;
+		this.reports = new ArrayList<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>>();
+	}
+
+	public void setIFDS(JitIcfg icfg, JumpFunctions<Unit, FlowAbstraction, IFDSSolver.BinaryDomain> jumpFunctions) {
+		this.icfg = icfg;
+		this.pathFinder = new PathFinder(icfg, jumpFunctions);
+	}
+
+	/***** Path finding *****/
+
+	class PathFinderTask implements Callable<List<FlowAbstraction>> {
+
+		private final Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks;
+		private final FlowAbstraction fa;
+
+		public PathFinderTask(FlowAbstraction fa, Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks) {
+			this.summaryLeaks = summaryLeaks;
+			this.fa = fa;
+		}
+
+		@Override
+		public List<FlowAbstraction> call() throws Exception {
+			try {
+				return pathFinder.findPath(fa, summaryLeaks);
+			} catch (Exception e) {
+				LOGGER.error("Could not extract path.");
+			}
+			return null;
+		}
+
+	}
+
+	/***** Reporting *****/
+
+	// Called by the solver threads for each leak
+	public abstract void report(FlowAbstraction fa, Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks);
+
+	public void setRecordReports(boolean recordReports) {
+		this.recordReports = recordReports;
+	}
+
+	protected void addReport(FlowAbstraction fa, Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks) {
+		if (!recordReports)
+			return;
+		synchronized (reports) {
+			reports.add(new Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>(fa, summaryLeaks));
+		}
+	}
+
+	/***** Path manipulation *****/
+
+	protected List<FlowAbstraction> findPrunedPath(FlowAbstraction fa,
+			Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks) {
+		List<FlowAbstraction> path = new ArrayList<FlowAbstraction>();
+		List<FlowAbstraction> prunnedPath = new ArrayList<FlowAbstraction>();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<List<FlowAbstraction>> future = executor.submit(new PathFinderTask(fa, summaryLeaks));
+		try {
+			path = future.get(10, TimeUnit.SECONDS);
+		} catch (TimeoutException | InterruptedException | ExecutionException e) {
+			future.cancel(true);
+			LOGGER.error("Path lookup terminated");
+		}
+		executor.shutdownNow();
+
+		if (path == null)
+			path = new ArrayList<FlowAbstraction>();
+		prunnedPath = prunePath(path);
+		prunnedPath = trimPath(prunnedPath, fa);
+		prunnedPath = removeWrongLines(prunnedPath);
+		return prunnedPath;
+	}
+
+	private List<FlowAbstraction> trimPath(List<FlowAbstraction> path, final FlowAbstraction sinkAbs) {
+		List<FlowAbstraction> trimmedPath = new ArrayList<FlowAbstraction>();
+		FlowAbstraction firstAbs = null;
+		FlowAbstraction lastAbs = null;
+
+		for (FlowAbstraction fa : path) {
+			if (fa.getUnit() != null) {
+
+				SootMethod method = icfg.getMethodOf(fa.getUnit());
+				if (method != null) {
+
+					if (lastAbs != null) {
+						if (fa.getShortName().equals(lastAbs.getShortName()) && !fa.equals(sinkAbs))
+							continue;
+					}
+
+					// Trim path
+					trimmedPath.add(fa);
+					lastAbs = fa;
+					if (firstAbs == null)
+						firstAbs = fa;
+				}
+			}
+		}
+
+		if (trimmedPath.size() > 1 && !trimmedPath.get(trimmedPath.size() - 1).equals(sinkAbs)) {
+			trimmedPath.add(sinkAbs);
+		}
+		return trimmedPath;
+	}
+
+	private List<FlowAbstraction> removeWrongLines(List<FlowAbstraction> path) {
+		List<FlowAbstraction> trimmedPath = new ArrayList<FlowAbstraction>();
+		for (FlowAbstraction fa : path) {
+			if (fa.getUnit().getJavaSourceStartLineNumber() > 2)
+				trimmedPath.add(fa);
+		}
+		return trimmedPath;
+	}
+
+	private List<FlowAbstraction> prunePath(List<FlowAbstraction> path) {
+		List<FlowAbstraction> pred = new ArrayList<FlowAbstraction>();
+		List<FlowAbstraction> cur = path;
+		while (!pred.equals(cur)) {
+			pred = cur;
+			cur = pruneIndirect(cur);
+		}
+		cur = pruneDirect(cur);
+		return cur;
+	}
+
+	private List<FlowAbstraction> pruneDirect(List<FlowAbstraction> path) {
+		List<FlowAbstraction> ret = new ArrayList<FlowAbstraction>();
+		for (int i = 0; i < path.size(); i++) {
+			FlowAbstraction fa = path.get(i);
+			FlowAbstraction containedUnit = containsUnit(ret, fa);
+			if (containedUnit != null)
+				ret = ret.subList(0, ret.indexOf(containedUnit));
+			ret.add(fa);
+		}
+		return ret;
+	}
+
+	private FlowAbstraction containsUnit(List<FlowAbstraction> list, FlowAbstraction fa) {
+		for (FlowAbstraction f : list)
+			if (f.getUnit().equals(fa.getUnit()))
+				return f;
+		return null;
+	}
+
+	private List<FlowAbstraction> pruneIndirect(List<FlowAbstraction> path) {
+		int firstIndex = -1;
+		int lastIndex = -1;
+
+		outerloop: for (int i = path.size() - 1; i >= 0; i--) {
+			FlowAbstraction backward = path.get(i);
+
+			Set<FlowAbstraction> predecessors = new HashSet<FlowAbstraction>();
+			if (backward.predecessor() == null)
+				continue;
+			predecessors.add(backward.predecessor());
+			predecessors.addAll(backward.predecessor().neighbours());
+
+			for (FlowAbstraction predecessor : predecessors) {
+				for (int j = 0; j < i - 1; j++) {
+					FlowAbstraction forward = path.get(j);
+					if (forward.equals(predecessor)) {
+						firstIndex = j;
+						lastIndex = i;
+						break outerloop;
+					}
+				}
+			}
+		}
+
+		if (firstIndex > 0 && lastIndex > firstIndex) {
+			List<FlowAbstraction> p = new ArrayList<FlowAbstraction>();
+			p.addAll(path.subList(0, firstIndex));
+			p.addAll(path.subList(lastIndex + 1, path.size()));
+			return p;
+		}
+		return path;
+	}
+
+	/***** Info *****/
+
+	public int getRunId() {
+		return this.runId;
+	}
+
+	public SootMethod getStartPoint() {
+		return this.startPoint;
+	}
+
+	public List<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>> getReports() {
+		synchronized (reports) {
+			return new ArrayList<Pair<FlowAbstraction, Map<FlowAbstraction, Set<List<FlowAbstraction>>>>>(reports);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package layeredtaintplugin.reporter;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import heros.solver.Pair;
+import layeredtaintplugin.internal.FlowAbstraction;
+import soot.SootMethod;
+import soot.Unit;
+
+/**
+ * Reporter for runs without a workbench. Leaks are kept as they are
+ * reported; their paths are only found by findPaths, once the analysis is
+ * over, so that path finding is not part of the analysis time.
+ */
+public class HeadlessReporter extends AbstractReporter {
+
+	private final List<Leak> leaks = new ArrayList<Leak>();
+	private final Set<Pair<Unit, Unit>> reported = new HashSet<Pair<Unit, Unit>>();
+
+	public HeadlessReporter(SootMethod startPoint) {
+		super(0, startPoint);
+	}
+
+	@Override
+	public void report(FlowAbstraction fa, Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks) {
+		addReport(fa, summaryLeaks);
+		synchronized (leaks) {
+			if (!reported.add(new Pair<Unit, Unit>(fa.getSource(), fa.getUnit())))
+				return;
+			leaks.add(new Leak(fa, summaryLeaks));
+		}
+	}
+
+	// Paths of the leaks reported so far, each bounded as in the workbench
+	public void findPaths() {
+		List<Leak> pending;
+		synchronized (leaks) {
+			pending = new ArrayList<Leak>(leaks);
+		}
+		for (Leak leak : pending)
+			if (leak.path == null)
+				leak.path = findPrunedPath(leak.sink, leak.summaryLeaks);
+	}
+
+	public int getLeakCount() {
+		synchronized (leaks) {
+			return leaks.size();
+		}
+	}
+
+	// One line per leak, followed by the lines of its path
+	public void write(PrintWriter out) {
+		synchronized (leaks) {
+			for (Leak leak : leaks) {
+				out.println("leak\t" + location(leak.sink.getSource()) + "\t" + location(leak.sink.getUnit()));
+				if (leak.path == null)
+					continue;
+				for (FlowAbstraction fa : leak.path)
+					out.println("\tpath\t" + location(fa.getUnit()));
+			}
+		}
+	}
+
+	private String location(Unit u) {
+		SootMethod m = icfg.getMethodOf(u);
+		return (m == null ? "?" : m.getSignature()) + ":" + u.getJavaSourceStartLineNumber() + "\t" + u;
+	}
+
+	private static class Leak {
+
+		private final FlowAbstraction sink;
+		private final Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks;
+		// Null until found
+		private volatile List<FlowAbstraction> path = null;
+
+		public Leak(FlowAbstraction sink, Map<FlowAbstraction, Set<List<FlowAbstraction>>> summaryLeaks) {
+			this.sink = sink;
+			this.summaryLeaks = summaryLeaks;
+		}
+	}
+}
@@ -1,8 +1,12 @@
 package layeredtaintplugin.ui.viewers;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.eclipse.jface.action.Action;
 import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.ColumnLabelProvider;
 import org.eclipse.jface.viewers.DoubleClickEvent;
@@ -16,6 +20,8 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
@@ -30,6 +36,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import layeredtaintplugin.Config;
+import layeredtaintplugin.internal.AnalysisStatistics;
 import layeredtaintplugin.ui.markers.MarkerHandler;
 
 public class OverviewView extends ViewPart {
@@ -38,12 +45,15 @@ public class OverviewView extends ViewPart {
 
 	private TableViewer viewer;
 	private Warning currentWarning = null;
+	private Label statisticsLabel;
+	private AnalysisStatistics statistics = null;
 
 	@Override
 	public void createPartControl(Composite parent) {
 		GridLayout layout = new GridLayout(2, false);
 		parent.setLayout(layout);
 		createViewer(parent);
+		createStatistics(parent);
 		viewer.addDoubleClickListener(new OverviewDoubleClickListener());
 		// viewer.addSelectionChangedListener(new
 		// OverviewSelectionChangeListener());
@@ -69,6 +79,22 @@ public class OverviewView extends ViewPart {
 		viewer.getControl().setLayoutData(gridData);
 	}
 
+	private void createStatistics(Composite parent) {
+		statisticsLabel = new Label(parent, SWT.NONE);
+		GridData gridData = new GridData();
+		gridData.horizontalSpan = 2;
+		gridData.grabExcessHorizontalSpace = true;
+		gridData.horizontalAlignment = GridData.FILL;
+		statisticsLabel.setLayoutData(gridData);
+
+		getViewSite().getActionBars().getToolBarManager().add(new Action("Export statistics") {
+			@Override
+			public void run() {
+				exportStatistics();
+			}
+		});
+	}
+
 	private void createColumns(final Composite parent, final TableViewer viewer) {
 		String[] titles = { "Id", "Source", "Sink", "Source location", "Sink location", "Run" };
 		int[] bounds = { 30, 350, 350, 150, 150 }; // 40
@@ -219,6 +245,36 @@ public class OverviewView extends ViewPart {
 		}
 	}
 
+	/***** Statistics *****/
+
+	public void setStatistics(AnalysisStatistics statistics) {
+		this.statistics = statistics;
+		statisticsLabel.setText(statistics.toSummary());
+		statisticsLabel.setToolTipText(statistics.toSummary());
+	}
+
+	private void exportStatistics() {
+		if (statistics == null)
+			return;
+		FileDialog dialog = new FileDialog(getSite().getShell(), SWT.SAVE);
+		dialog.setFileName("statistics-" + statistics.getRunId() + ".json");
+		dialog.setFilterExtensions(new String[] { "*.json" });
+		dialog.setOverwrite(true);
+		String file = dialog.open();
+		if (file == null)
+			return;
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(file));
+			try {
+				out.print(statistics.toJson());
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			LOGGER.error("Could not export statistics : " + e.getMessage());
+		}
+	}
+
 	/***** Doubleclick listener *****/
 
 	class OverviewDoubleClickListener implements IDoubleClickListener {